@@ -5,6 +5,7 @@
 
 package io.github.jtchen.antique;
 
+import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 
@@ -30,6 +31,15 @@ abstract class AbstractController
 	abstract void setLineWrap(boolean isLineWrap);
 	abstract void setInitialText(String text);
 	abstract String getText();
+	abstract Reader getReader();
+
+	/*
+	 *	The controller remembers the state of the text when it is loaded or
+	 *	saved, so that no copy of the saved text has to be kept.
+	 */
+	abstract void markSaved();
+	abstract boolean isTextChanged();
+
 	abstract boolean isSelected();
 	abstract String getSelectedText();
 
@@ -51,6 +61,13 @@ abstract class AbstractController
 	abstract void disableMatch();
 	abstract void goToLine(int lineNumber);
 
+	/*
+	 *	The rows of the outline (see AbstractModel) are listed with the texts
+	 *	of their lines in the outline dialog.
+	 */
+	abstract int[] getOutlineRows();
+	abstract String getLineText(int row);
+
 	abstract boolean isUndoable();
 	abstract boolean isRedoable();
 	abstract void undo();
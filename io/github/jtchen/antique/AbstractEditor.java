@@ -23,8 +23,12 @@ abstract class AbstractEditor extends Frame
 	static final byte PLAIN_SYNTAX = 0;
 	static final byte MARKDOWN_SYNTAX = 1;
 	static final byte JAVA_SYNTAX = 2;
+	static final byte JSON_SYNTAX = 3;
+	static final byte XML_SYNTAX = 4;
+	static final byte PROPERTIES_SYNTAX = 5;
 
 	static final long MAX_FILE_SIZE = 1024 * 1024;
+	static final long LARGE_FILE_SIZE = 256 * 1024; // use a PieceTable
 	static final long MAX_PASTABLE_STRING_SIZE = 512 * 1024;
 
 	/*
@@ -80,6 +84,12 @@ abstract class AbstractEditor extends Frame
 
 	abstract void goToLine(int lineNumber);
 
+	/*
+	 *	This method returns the completions of the given prefix, which are
+	 *	the words of all the documents beginning with it.
+	 */
+	abstract String[] getCompletions(String prefix);
+
 	abstract void newFile();
 	abstract void openFile(File file);
 
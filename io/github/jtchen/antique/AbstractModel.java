@@ -5,6 +5,8 @@
 
 package io.github.jtchen.antique;
 
+import java.util.*;
+
 /*
  *	This class defines the model and serves as an interface to other classes.
  *	Currently, the model is implemented as a passive model and should not have
@@ -25,9 +27,74 @@ abstract class AbstractModel {
 	abstract void setCaret(int row, int col);
 
 	/*
-	 *	This is the principal method to support syntax highlighting.
+	 *	Each line feed is counted as one char in an offset. The position is
+	 *	returned as { row, column }, which can be passed to setCaret().
+	 */
+	abstract int getOffset(int row, int col);
+	abstract int[] getPosition(int offset);
+
+	/*
+	 *	This is the principal method to support syntax highlighting. The same
+	 *	colors can be returned as spans (see ColorSpans), which take less
+	 *	memory for long lines.
 	 */
 	abstract byte[] getColorCodes(int row);
+	abstract int[] getColorSpans(int row);
+
+	/*
+	 *	These methods fill the colors into the buffer of the caller instead,
+	 *	so that it can be reused for every line (e.g. while painting).
+	 */
+	abstract void getColorCodes(int row, byte[] colorCodes);
+	abstract void getColorSpans(int row, int[] syntaxColorSpans,
+			IntVector colorSpans);
+
+	/*
+	 *	The syntax colors of a line only depend on the text, so they can be
+	 *	computed in advance by another thread (see Highlighter). The other
+	 *	highlights (e.g. of the matches) are added by getColorSpans(), and
+	 *	the given syntax colors may be null if they are not ready yet.
+	 */
+	abstract int[] getSyntaxColorSpans(int row);
+	abstract int[] getColorSpans(int row, int[] syntaxColorSpans);
+
+	/*
+	 *	The syntax colors of the lines between these rows (both inclusive) may
+	 *	have been changed by the last change of the text. They are not only
+	 *	the changed lines, e.g. when a block comment is opened.
+	 */
+	abstract int getRecoloredBeginRow();
+	abstract int getRecoloredEndRow();
+
+	/*
+	 *	A line longer than LONG_LINE_LENGTH is shown without any colors, so
+	 *	that a single line (e.g. of minified code) cannot make every repaint
+	 *	slow.
+	 */
+	static final int LONG_LINE_LENGTH = 20000;
+	abstract boolean isLongLine(int row);
+
+	/*
+	 *	The outline of a document is the rows of its headings or declarations
+	 *	in order. It is kept up to date along with the syntax of the changed
+	 *	lines, so it is returned without going through the document.
+	 */
+	abstract int[] getOutlineRows();
+
+	/*
+	 *	The words beginning with the prefix are appended to the vectors with
+	 *	the counts of the lines containing them, at most `maxCount` words in
+	 *	descending order of the counts (see WordIndex).
+	 */
+	abstract void getCompletions(String prefix, int maxCount,
+			Vector words, IntVector counts);
+
+	/*
+	 *	This method starts to index the words in another thread, e.g. when a
+	 *	document is loaded. They are neither completed nor highlighted at the
+	 *	caret until the index is built.
+	 */
+	abstract void indexWords();
 
 	abstract boolean isSelected();
 	abstract Range getSelection();
@@ -44,6 +111,33 @@ abstract class AbstractModel {
 	abstract void moveCaretToNextMatch();
 	abstract void disableMatch();
 
+	/*
+	 *	The edits between beginBatch() and endBatch() are handled as one:
+	 *	the derived states (e.g. of syntax highlighting) are updated, and a
+	 *	merged ModelEvent is sent, only once at the end of the batch.
+	 */
+	abstract void beginBatch();
+	abstract void endBatch();
+
+	/*
+	 *	The version is increased by every change of the text. A snapshot
+	 *	holds the text of the current version, and it can be read by another
+	 *	thread while the model is being edited.
+	 */
+	abstract int getVersion();
+	abstract ModelSnapshot getSnapshot();
+
+	abstract void addModelListener(ModelListener l);
+	abstract void removeModelListener(ModelListener l);
+
+	/*
+	 *	Another class can keep its data of a model as a property, e.g. the
+	 *	syntax colors computed for it, which are then dropped along with the
+	 *	model. A property is removed by putting null.
+	 */
+	abstract Object getProperty(Object key);
+	abstract void putProperty(Object key, Object value);
+
 	abstract void insert(char c);
 	abstract void backSpace();
 	abstract void insertString(String s);
@@ -89,6 +183,18 @@ abstract class AbstractModel {
 			count = 0;
 		}
 
+		/*
+		 *	This method returns a vector of the current elements which shares
+		 *	the array with this vector. It remains valid as long as the current
+		 *	elements are not changed, e.g. if elements are only appended.
+		 */
+		IntVector snapshot() {
+			IntVector v = new IntVector();
+			v.array = array;
+			v.count = count;
+			return v;
+		}
+
 		synchronized void setSize(int newSize) {
 			if (newSize < 0) {
 				throw new ArrayIndexOutOfBoundsException();
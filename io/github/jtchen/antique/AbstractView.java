@@ -25,8 +25,10 @@ import java.awt.event.*;
  *
  *	3.	updateTextByModel: This method will be called after changing the text.
  *		A range of rows can be provided to reset the line metrics, otherwise
- *		this method will reset all rows. If no optional viewport is provided,
- *		this method moves the viewport to contain the cursor.
+ *		this method will reset all rows. If lines were inserted or removed,
+ *		the line metrics can be spliced in the same way as a ModelEvent. If no
+ *		optional viewport is provided, this method moves the viewport to
+ *		contain the cursor.
  */
 abstract class AbstractView extends AbstractEditor.AdaptiveCanvas
 		implements ComponentListener {
@@ -44,6 +46,8 @@ abstract class AbstractView extends AbstractEditor.AdaptiveCanvas
 	abstract int[] moveCursorByPoint(int x, int y);
 	abstract void updateCursorByModel();
 	abstract void updateTextByModel(int beginRow, int endRow);
+	abstract void updateTextByModel(int firstRow,
+			int oldLineCount, int newLineCount);
 	abstract void updateTextByModel();
 	abstract void updateTextByModel(Point viewportOrigin);
 
@@ -0,0 +1,174 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	The colors of a line can be described by spans instead of a color code for
+ *	each char. The spans are kept in an int array of triples of the begin
+ *	column, the end column (exclusive) and the color code. They are sorted and
+ *	do not overlap, the chars not covered by any span have the color code 0,
+ *	and two adjacent spans never have the same color code.
+ *
+ *	This class only has static methods to build and combine such arrays. An
+ *	array of spans is never changed after it is built, so it can be shared
+ *	(e.g. cached by a Highlighter).
+ */
+class ColorSpans {
+
+	static final int[] EMPTY = new int[0];
+
+	/*
+	 *	This method appends a span to the given vector, and it is merged into
+	 *	the last span if they are adjacent and have the same color code. The
+	 *	spans must be added in order.
+	 */
+	static void add(AbstractModel.IntVector v, int begin, int end, int color) {
+		if ((begin >= end) || (color == 0)) {
+			return;
+		}
+		int n = v.size();
+		if ((n > 0) && (v.elementAt(n - 2) == begin)
+				&& (v.elementAt(n - 1) == color)) {
+			v.setSize(n - 2);
+			v.addElement(end);
+			v.addElement(color);
+			return;
+		}
+		v.addElement(begin);
+		v.addElement(end);
+		v.addElement(color);
+	}
+
+	static int[] toArray(AbstractModel.IntVector v) {
+		if (v.size() == 0) {
+			return EMPTY;
+		}
+		int[] spans = new int[v.size()];
+		for (int i = 0; i < spans.length; i += 1) {
+			spans[i] = v.elementAt(i);
+		}
+		return spans;
+	}
+
+	static int[] fromColorCodes(byte[] colorCodes) {
+		AbstractModel.IntVector v = new AbstractModel.IntVector();
+		int begin = 0;
+		for (int col = 1; col <= colorCodes.length; col += 1) {
+			if ((col == colorCodes.length)
+					|| (colorCodes[col] != colorCodes[begin])) {
+				add(v, begin, col, colorCodes[begin]);
+				begin = col;
+			}
+		}
+		return toArray(v);
+	}
+
+	/*
+	 *	This method fills the color codes of the given spans into the first
+	 *	`length` elements of the array.
+	 */
+	static void fill(AbstractModel.IntVector spans, byte[] colorCodes,
+			int length) {
+		for (int col = 0; col < length; col += 1) {
+			colorCodes[col] = 0;
+		}
+		for (int i = 0; i < spans.size(); i += 3) {
+			int end = Math.min(spans.elementAt(i + 1), length);
+			byte color = (byte) spans.elementAt(i + 2);
+			for (int col = spans.elementAt(i); col < end; col += 1) {
+				colorCodes[col] = color;
+			}
+		}
+	}
+
+	/*
+	 *	This method returns the end column of the spans, i.e. the length of
+	 *	the shortest line they fit.
+	 */
+	static int getEnd(int[] spans) {
+		return (spans.length == 0) ? 0 : spans[spans.length - 2];
+	}
+
+	/*
+	 *	This method puts the spans with four layers of spans on top of them
+	 *	into the result in one pass. The colors of the cover replace those
+	 *	under them, and the three layers of masks are combined by OR. Only the
+	 *	spans are walked through, regardless of the length of the line.
+	 */
+	static void overlay(int[] spans, AbstractModel.IntVector cover,
+			AbstractModel.IntVector masks1, AbstractModel.IntVector masks2,
+			AbstractModel.IntVector masks3, AbstractModel.IntVector result) {
+		result.removeAllElements();
+		int i = 0;
+		int k = 0;
+		int k1 = 0;
+		int k2 = 0;
+		int k3 = 0;
+		int pos = 0;
+		while (true) {
+			int begin = (i < spans.length) ? spans[i] : Integer.MAX_VALUE;
+			int end = (i < spans.length) ? spans[i + 1] : Integer.MAX_VALUE;
+			int coverBegin = getBegin(cover, k);
+			int begin1 = getBegin(masks1, k1);
+			int begin2 = getBegin(masks2, k2);
+			int begin3 = getBegin(masks3, k3);
+			int first = Math.min(Math.min(begin, coverBegin),
+					Math.min(Math.min(begin1, begin2), begin3));
+			if (first == Integer.MAX_VALUE) {
+				break;
+			}
+
+			pos = Math.max(pos, first);
+			int color = (begin <= pos) ? spans[i + 2] : 0;
+			if (coverBegin <= pos) {
+				color = cover.elementAt(k + 2);
+			}
+			if (begin1 <= pos) {
+				color |= masks1.elementAt(k1 + 2);
+			}
+			if (begin2 <= pos) {
+				color |= masks2.elementAt(k2 + 2);
+			}
+			if (begin3 <= pos) {
+				color |= masks3.elementAt(k3 + 2);
+			}
+
+			int next = Math.min((begin > pos) ? begin : end,
+					getNext(cover, k, pos));
+			next = Math.min(next, getNext(masks1, k1, pos));
+			next = Math.min(next, getNext(masks2, k2, pos));
+			next = Math.min(next, getNext(masks3, k3, pos));
+			add(result, pos, next, color);
+
+			pos = next;
+			if (end <= pos) {
+				i += 3;
+			}
+			k += (getEnd(cover, k) <= pos) ? 3 : 0;
+			k1 += (getEnd(masks1, k1) <= pos) ? 3 : 0;
+			k2 += (getEnd(masks2, k2) <= pos) ? 3 : 0;
+			k3 += (getEnd(masks3, k3) <= pos) ? 3 : 0;
+		}
+	}
+
+	private static int getBegin(AbstractModel.IntVector v, int k) {
+		return (k < v.size()) ? v.elementAt(k) : Integer.MAX_VALUE;
+	}
+
+	private static int getEnd(AbstractModel.IntVector v, int k) {
+		return (k < v.size()) ? v.elementAt(k + 1) : Integer.MAX_VALUE;
+	}
+
+	/*
+	 *	This method returns the next column after `pos` at which the span
+	 *	at the index k begins or ends.
+	 */
+	private static int getNext(AbstractModel.IntVector v, int k, int pos) {
+		int begin = getBegin(v, k);
+		return (begin > pos) ? begin : getEnd(v, k);
+	}
+
+}
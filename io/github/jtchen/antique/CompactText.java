@@ -0,0 +1,92 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This class holds an immutable text compactly. If all the chars of the text
+ *	are in the Latin-1 range, which is the usual case for source files and
+ *	logs, they are stored as bytes, otherwise they are stored as chars. The
+ *	static methods do the same thing for the lines of a document, which are
+ *	kept as Objects to avoid the overhead of a wrapper for each line.
+ */
+final class CompactText {
+
+	private byte[] bytes = null; // if all the chars are Latin-1
+	private char[] chars = null; // otherwise
+
+	CompactText(String s) {
+		char[] temp = s.toCharArray();
+		Object o = encode(temp);
+		if (o instanceof byte[]) {
+			bytes = (byte[]) o;
+		} else {
+			chars = temp;
+		}
+	}
+
+	int length() {
+		return (bytes != null) ? bytes.length : chars.length;
+	}
+
+	char charAt(int index) {
+		return (bytes != null) ? (char) (bytes[index] & 0xff) : chars[index];
+	}
+
+	/*
+	 *	This method is the same as String.getChars().
+	 */
+	void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		if (bytes != null) {
+			for (int i = srcBegin; i < srcEnd; i += 1) {
+				dst[dstBegin + (i - srcBegin)] = (char) (bytes[i] & 0xff);
+			}
+		} else {
+			System.arraycopy(chars, srcBegin, dst, dstBegin, srcEnd - srcBegin);
+		}
+	}
+
+	public String toString() {
+		char[] temp = new char[length()];
+		getChars(0, temp.length, temp, 0);
+		return new String(temp);
+	}
+
+	/* ---- Methods to encode and decode a line ---------------------------- */
+
+	/*
+	 *	This method returns a byte array if all the chars are Latin-1,
+	 *	otherwise it returns the given char array itself.
+	 */
+	static Object encode(char[] line) {
+		for (int i = 0; i < line.length; i += 1) {
+			if (line[i] > 0xff) {
+				return line;
+			}
+		}
+		byte[] temp = new byte[line.length];
+		for (int i = 0; i < line.length; i += 1) {
+			temp[i] = (byte) line[i];
+		}
+		return temp;
+	}
+
+	static char[] decode(Object o) {
+		if (o instanceof char[]) {
+			return (char[]) o;
+		}
+		byte[] b = (byte[]) o;
+		char[] temp = new char[b.length];
+		for (int i = 0; i < b.length; i += 1) {
+			temp[i] = (char) (b[i] & 0xff);
+		}
+		return temp;
+	}
+
+	static int length(Object o) {
+		return (o instanceof char[]) ? ((char[]) o).length : ((byte[]) o).length;
+	}
+
+}
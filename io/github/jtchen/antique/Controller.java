@@ -5,6 +5,7 @@
 
 package io.github.jtchen.antique;
 
+import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.datatransfer.*;
@@ -14,7 +15,7 @@ import java.util.*;
  *	This is an implementation of the controller. Note that it contains all the
  *	information needed to redo or undo editing operations.
  */
-class Controller extends AbstractController {
+class Controller extends AbstractController implements ModelListener {
 
 	static final byte COMPOSITE = 0;
 	static final byte INSERT = 1;
@@ -24,11 +25,6 @@ class Controller extends AbstractController {
 	static final byte INSERT_STRING = 5;
 	static final byte DELETE_STRING = 6;
 
-	private static final int UPDATE_ALL = 0;
-	private static final int UPDATE_SINGLE_LINE = 1;
-
-	private int updateMode = UPDATE_ALL;
-
 	private AbstractEditor editor;
 	private AbstractModel model;
 	private AbstractView view;
@@ -50,12 +46,32 @@ class Controller extends AbstractController {
 	private Stack undoStack = new Stack();
 	private Stack redoStack = new Stack();
 
+	/*
+	 *	Every state of the text reachable by undo/redo has a unique id, which
+	 *	is kept by the command on the top of the undoStack. Comparing it with
+	 *	the id of the saved state tells whether the text is changed in O(1).
+	 */
+	private int lastStateId = 0; // the initial state when undoStack is empty
+	private int savedStateId = 0;
+	private int savedCharCount = 0;
+	private long savedTextHash = 0;
+	private TextHash textHash = null; // created when first needed
+
 	private int magicCursorX = -1; // an impossible value as a flag
 
+	private PopupMenu completionMenu = null; // added to the view when shown
+
+	/*
+	 *	All the changes of the model since the view was updated are merged
+	 *	into one event.
+	 */
+	private ModelEvent pendingEvent = null;
+
 	Controller(AbstractEditor editor, AbstractModel model, AbstractView view) {
 		this.editor = editor;
 		this.model = model;
 		this.view = view;
+		model.addModelListener(this);
 
 		clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
 	}
@@ -108,16 +124,23 @@ class Controller extends AbstractController {
 	public void mouseEntered(MouseEvent e) {}
 	public void mouseExited(MouseEvent e) {}
 
-	/* ---- A helper method for text changes ------------------------------- */
+	/* ---- Helper methods for text changes -------------------------------- */
+
+	public void modelChanged(ModelEvent e) {
+		pendingEvent = (pendingEvent == null) ? e : pendingEvent.merge(e);
+	}
 
 	private void textChanged() {
-		if (updateMode == UPDATE_SINGLE_LINE) {
-			int row = model.getCaretRow();
-			view.updateTextByModel(row, row);
-			updateMode = UPDATE_ALL;
-		} else {
+		ModelEvent pe = pendingEvent;
+		if (pe == null) {
 			view.updateTextByModel();
+		} else if (pe.oldLineCount == pe.newLineCount) {
+			view.updateTextByModel(pe.firstRow, pe.getLastRow());
+		} else {
+			view.updateTextByModel(pe.firstRow,
+					pe.oldLineCount, pe.newLineCount);
 		}
+		pendingEvent = null;
 
 		magicCursorX = view.getCursorX();
 		editor.doTextChanged();
@@ -142,7 +165,13 @@ class Controller extends AbstractController {
 	/* ---- Methods for the editor ----------------------------------------- */
 
 	void setModel(AbstractModel model) {
+		this.model.removeModelListener(this);
 		this.model = model;
+		model.addModelListener(this);
+		pendingEvent = null;
+		if (textHash != null) {
+			textHash.setModel(model);
+		}
 	}
 
 	Rectangle getViewport() {
@@ -168,6 +197,7 @@ class Controller extends AbstractController {
 	void setInitialText(String text) {
 		model.insertString(text);
 		model.setCaret(0, 0);
+		pendingEvent = null; // the view will be updated entirely
 	}
 
 	String getText() {
@@ -177,6 +207,43 @@ class Controller extends AbstractController {
 		return model.getStringByRange(range);
 	}
 
+	Reader getReader() {
+		return new ModelReader(model.getSnapshot());
+	}
+
+	void markSaved() {
+		savedStateId = getStateId();
+		savedCharCount = model.getCharCount();
+		savedTextHash = (textHash != null)
+				? textHash.getValue() : TextHash.getValue(model);
+	}
+
+	/*
+	 *	Only if the state differs from the saved one but the text has the same
+	 *	length, e.g. when a char is typed and then deleted, the hash of the
+	 *	text is compared. The textHash is created for the first such state,
+	 *	and then it only hashes the changed lines again.
+	 */
+	boolean isTextChanged() {
+		if (getStateId() == savedStateId) {
+			return false;
+		}
+		if (model.getCharCount() != savedCharCount) {
+			return true;
+		}
+		if (textHash == null) {
+			textHash = new TextHash(model);
+		}
+		return (textHash.getValue() != savedTextHash);
+	}
+
+	private int getStateId() {
+		if (undoStack.empty()) {
+			return 0;
+		}
+		return ((Command) undoStack.peek()).stateId;
+	}
+
 	boolean isSelected() {
 		return model.isSelected();
 	}
@@ -234,6 +301,7 @@ class Controller extends AbstractController {
 
 		int cmdCount = (isReplaceAll) ? count : 1;
 		Command compo = new Command(COMPOSITE, new Command[2 * cmdCount]);
+		model.beginBatch();
 		for (int i = 0; i < (2 * cmdCount); i += 2) {
 			if (((i == 0) && (! model.isCaretAtMatchEnd())) || (i > 0)) {
 				model.moveCaretToNextMatch();
@@ -242,7 +310,8 @@ class Controller extends AbstractController {
 			compo.set(i, (new Command(DELETE_STRING, match)).exec());
 			compo.set(i + 1, (new Command(INSERT_STRING, repl)).exec());
 		}
-		undoStack.push(compo);
+		model.endBatch();
+		pushUndo(compo);
 		redoStack.setSize(0);
 
 		if ((! isReplaceAll) && ((count - 1) > 0)) {
@@ -272,6 +341,14 @@ class Controller extends AbstractController {
 		magicCursorX = view.getCursorX();
 	}
 
+	int[] getOutlineRows() {
+		return model.getOutlineRows();
+	}
+
+	String getLineText(int row) {
+		return new String(model.getLine(row));
+	}
+
 	boolean isUndoable() {
 		return (! undoStack.empty());
 	}
@@ -280,14 +357,26 @@ class Controller extends AbstractController {
 		return (! redoStack.empty());
 	}
 
+	/*
+	 *	A new command leads to a new state, even if the same text was seen
+	 *	before, since the states are identified by the history.
+	 */
+	private void pushUndo(Command cmd) {
+		lastStateId += 1;
+		cmd.stateId = lastStateId;
+		undoStack.push(cmd);
+	}
+
 	void undo() {
 		if (! undoStack.empty()) {
 			Command cmd = (Command) undoStack.pop();
 			if (cmd.isComposite()) {
 				int count = cmd.getCommandCount();
+				model.beginBatch();
 				for (int i = count - 1; i >= 0; i -= 1) {
 					cmd.set(i, cmd.get(i).exec());
 				}
+				model.endBatch();
 				redoStack.push(cmd);
 			} else {
 				redoStack.push(cmd.exec());
@@ -303,9 +392,11 @@ class Controller extends AbstractController {
 			Command cmd = (Command) redoStack.pop();
 			if (cmd.isComposite()) {
 				int count = cmd.getCommandCount();
+				model.beginBatch();
 				for (int i = 0; i < count; i += 1) {
 					cmd.set(i, cmd.get(i).exec());
 				}
+				model.endBatch();
 				undoStack.push(cmd);
 			} else {
 				undoStack.push(cmd.exec());
@@ -320,7 +411,7 @@ class Controller extends AbstractController {
 		Range sel = model.getSelection();
 		if (sel != null) {
 			setClipboard(model.getStringByRange(sel));
-			undoStack.push((new Command(DELETE_STRING, sel)).exec());
+			pushUndo((new Command(DELETE_STRING, sel)).exec());
 			model.clearSelection();
 			redoStack.setSize(0);
 			editor.doSelectionChanged();
@@ -347,11 +438,13 @@ class Controller extends AbstractController {
 
 		if (sel != null) {
 			Command compo = new Command(COMPOSITE, new Command[2]);
+			model.beginBatch();
 			compo.set(0, (new Command(DELETE_STRING, sel)).exec());
 			compo.set(1, (new Command(INSERT_STRING, s)).exec());
-			undoStack.push(compo);
+			model.endBatch();
+			pushUndo(compo);
 		} else {
-			undoStack.push((new Command(INSERT_STRING, s)).exec());
+			pushUndo((new Command(INSERT_STRING, s)).exec());
 		}
 		model.clearSelection();
 		redoStack.setSize(0);
@@ -431,6 +524,9 @@ class Controller extends AbstractController {
 		case KeyEvent.VK_T: // Ctrl-T (new tab)
 			editor.newFile();
 			break;
+		case KeyEvent.VK_SPACE: // Ctrl-Space (complete the word)
+			doCompleteWord();
+			break;
 		case KeyEvent.VK_U: // Ctrl-U (lowercase), Ctrl-Shift-U (uppercase)
 			Range sel = model.getSelection();
 			if (sel != null) {
@@ -443,9 +539,11 @@ class Controller extends AbstractController {
 				}
 				if (! s1.equals(s2)) {
 					Command compo = new Command(COMPOSITE, new Command[2]);
+					model.beginBatch();
 					compo.set(0, (new Command(DELETE_STRING, sel)).exec());
 					compo.set(1, (new Command(INSERT_STRING, s2)).exec());
-					undoStack.push(compo);
+					model.endBatch();
+					pushUndo(compo);
 					redoStack.setSize(0);
 					textChanged();
 				}
@@ -462,19 +560,21 @@ class Controller extends AbstractController {
 				return;
 			}
 			model.setCaret(row, model.getLine(row).length);
-			undoStack.push((new Command(DELETE, '\n')).exec());
+			pushUndo((new Command(DELETE, '\n')).exec());
 		} else {
 			Vector cmdVec = new Vector(); // of Command
+			model.beginBatch();
 			for (int i = sel.beginRow; i < sel.endRow; i += 1) {
 				char[] line = model.getLine(sel.beginRow);
 				model.setCaret(sel.beginRow, line.length);
 				cmdVec.addElement((new Command(DELETE, '\n')).exec());
 			}
+			model.endBatch();
 			Command compo = new Command(COMPOSITE, new Command[cmdVec.size()]);
 			for (int i = 0; i < cmdVec.size(); i += 1) {
 				compo.set(i, (Command) cmdVec.elementAt(i));
 			}
-			undoStack.push(compo);
+			pushUndo(compo);
 			model.clearSelection();
 			editor.doSelectionChanged();
 		}
@@ -482,6 +582,76 @@ class Controller extends AbstractController {
 		textChanged();
 	}
 
+	/*
+	 *	The word before the caret is completed by the words of all the tabs.
+	 *	A single completion is inserted at once, and the others are listed in
+	 *	a popup menu below the cursor.
+	 */
+	private void doCompleteWord() {
+		String prefix = getCompletionPrefix();
+		if (prefix == null) {
+			return;
+		}
+		String[] words = editor.getCompletions(prefix);
+		if (words.length == 0) {
+			return;
+		} else if (words.length == 1) {
+			completeWord(words[0]);
+			return;
+		}
+
+		if (completionMenu != null) {
+			view.remove(completionMenu);
+		}
+		completionMenu = new PopupMenu();
+		ActionListener listener = new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				completeWord(e.getActionCommand());
+			}
+		};
+		for (int i = 0; i < words.length; i += 1) {
+			MenuItem mi = new MenuItem(words[i]);
+			mi.addActionListener(listener);
+			completionMenu.add(mi);
+		}
+		view.add(completionMenu);
+		completionMenu.show(view, view.getCursorX(),
+				view.getCursorY() + view.getLineHeight());
+	}
+
+	/*
+	 *	This method returns the word ending at the caret, or null if there is
+	 *	a selection or the caret is not at the end of a word.
+	 */
+	private String getCompletionPrefix() {
+		if (model.getSelection() != null) {
+			return null;
+		}
+		char[] line = model.getLine(model.getCaretRow());
+		int col = model.getCaretColumn();
+		if ((col < line.length)
+				&& Character.isUnicodeIdentifierPart(line[col])) {
+			return null;
+		}
+		return WordIndex.getWordAt(line, col);
+	}
+
+	/*
+	 *	The prefix is found again, since the caret may have been moved while
+	 *	the popup menu was shown.
+	 */
+	private void completeWord(String word) {
+		String prefix = getCompletionPrefix();
+		if ((prefix == null) || (! word.startsWith(prefix))) {
+			return;
+		}
+		String s = word.substring(prefix.length());
+		pushUndo((new Command(INSERT_STRING, s)).exec());
+		redoStack.setSize(0);
+		editor.doSelectionChanged();
+		textChanged();
+	}
+
 	private void doKeyNavigation(KeyEvent e) {
 		int row = model.getCaretRow();
 		int col = model.getCaretColumn();
@@ -630,17 +800,16 @@ class Controller extends AbstractController {
 		switch (keyChar) {
 		case KeyEvent.VK_DELETE:
 			if (sel != null) {
-				undoStack.push((new Command(DELETE_STRING, sel)).exec());
+				pushUndo((new Command(DELETE_STRING, sel)).exec());
 			} else {
 				int row = model.getCaretRow();
 				int col = model.getCaretColumn();
 				if (col != model.getLine(row).length) {
 					char c = model.getLine(row)[col];
-					undoStack.push((new Command(DELETE, c)).exec());
-					updateMode = UPDATE_SINGLE_LINE;
+					pushUndo((new Command(DELETE, c)).exec());
 				} else { // col == line.length
 					if (row != (model.getLineCount() - 1)) {
-						undoStack.push((new Command(DELETE, '\n')).exec());
+						pushUndo((new Command(DELETE, '\n')).exec());
 					} else {
 						break; // does nothing and returns
 					}
@@ -650,16 +819,15 @@ class Controller extends AbstractController {
 			break;
 		case KeyEvent.VK_BACK_SPACE:
 			if (sel != null) {
-				undoStack.push((new Command(DELETE_STRING, sel)).exec());
+				pushUndo((new Command(DELETE_STRING, sel)).exec());
 			} else {
 				int row = model.getCaretRow();
 				int col = model.getCaretColumn();
 				if (col > 0) {
 					char c = model.getLine(row)[col - 1];
-					undoStack.push((new Command(BACK_SPACE, c)).exec());
-					updateMode = UPDATE_SINGLE_LINE;
+					pushUndo((new Command(BACK_SPACE, c)).exec());
 				} else if (row > 0) { // col == 0
-					undoStack.push((new Command(BACK_SPACE, '\n')).exec());
+					pushUndo((new Command(BACK_SPACE, '\n')).exec());
 				} else {
 					break; // does nothing and returns
 				}
@@ -670,11 +838,13 @@ class Controller extends AbstractController {
 		case '\r':
 			if (sel != null) {
 				Command compo = new Command(COMPOSITE, new Command[2]);
+				model.beginBatch();
 				compo.set(0, (new Command(DELETE_STRING, sel)).exec());
 				compo.set(1, (new Command(INSERT, '\n')).exec());
-				undoStack.push(compo);
+				model.endBatch();
+				pushUndo(compo);
 			} else {
-				undoStack.push((new Command(INSERT, '\n')).exec());
+				pushUndo((new Command(INSERT, '\n')).exec());
 			}
 			model.clearSelection();
 			break;
@@ -685,12 +855,13 @@ class Controller extends AbstractController {
 			} else {
 				if (sel != null) {
 					Command compo = new Command(COMPOSITE, new Command[2]);
+					model.beginBatch();
 					compo.set(0, (new Command(DELETE_STRING, sel)).exec());
 					compo.set(1, (new Command(INSERT, keyChar)).exec());
-					undoStack.push(compo);
+					model.endBatch();
+					pushUndo(compo);
 				} else { // inserts a single char
-					undoStack.push((new Command(INSERT, keyChar)).exec());
-					updateMode = UPDATE_SINGLE_LINE;
+					pushUndo((new Command(INSERT, keyChar)).exec());
 				}
 				model.clearSelection();
 			}
@@ -726,6 +897,7 @@ class Controller extends AbstractController {
 		}
 
 		Vector cmdVec = new Vector(); // of Command
+		model.beginBatch();
 		if (e.isShiftDown()) {
 			Range range = new Range();
 			for (int row = beginRow; row <= endRow; row += 1) {
@@ -763,12 +935,13 @@ class Controller extends AbstractController {
 				}
 			}
 		}
+		model.endBatch();
 
 		Command compo = new Command(COMPOSITE, new Command[cmdVec.size()]);
 		for (int i = 0; i < cmdVec.size(); i += 1) {
 			compo.set(i, (Command) cmdVec.elementAt(i));
 		}
-		undoStack.push(compo);
+		pushUndo(compo);
 
 		model.setSelectionBegin(beginRow, 0);
 		model.setSelectionEnd(endRow, model.getLine(endRow).length);
@@ -793,6 +966,8 @@ class Controller extends AbstractController {
 		private int caretRow;
 		private int caretColumn;
 
+		int stateId; // the state after this command is done or redone
+
 		Command(byte type, char c) {
 			this.type = type;
 			this.c = c;
@@ -869,6 +1044,8 @@ class Controller extends AbstractController {
 				break;
 			}
 
+			// the state is restored when the reverse command is executed
+			reverseCmd.stateId = stateId;
 			return reverseCmd;
 		}
 
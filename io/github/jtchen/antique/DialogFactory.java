@@ -34,6 +34,8 @@ class DialogFactory {
 	private static final String DLG_REPLACE_ALL = "Replace All";
 	private static final String DLG_GOTO_LINE = "Goto line";
 	private static final String DLG_LINE_NUMBER = "Line Number:";
+	private static final String DLG_OUTLINE = "Outline";
+	private static final String DLG_SYMBOL = "Symbol:";
 
 	/* ---- The dialog-building components --------------------------------- */
 
@@ -400,4 +402,122 @@ class DialogFactory {
 
 	}
 
+	/*
+	 *	The items of the outline are filtered by the text typed in the field,
+	 *	and the editor goes to the line of the selected item.
+	 */
+	static class OutlineDialog extends GenericDialog implements TextListener {
+
+		TextField symbolField = new TextField(40);
+		List itemList = new List(16);
+
+		private int[] rows = new int[0];
+		private String[] labels = new String[0];
+		private AbstractModel.IntVector shownRows
+				= new AbstractModel.IntVector(); // of the items in the list
+
+		OutlineDialog(AbstractEditor editor) {
+			super(editor, DLG_OUTLINE, false);
+			symbolField.addKeyListener(this);
+			symbolField.addActionListener(this);
+			symbolField.addTextListener(this);
+			itemList.addKeyListener(this);
+			itemList.addActionListener(this); // double-clicking an item
+
+			setLayout(new BorderLayout());
+			Panel p1 = new DialogPanel(DialogPanel.LEFT);
+			p1.add(new Label(DLG_SYMBOL));
+			p1.add(symbolField);
+			add(p1, BorderLayout.NORTH);
+			add(itemList, BorderLayout.CENTER);
+			Panel p2 = new DialogPanel(DialogPanel.CENTER);
+			p2.add(new DialogButton(DLG_OK, this));
+			p2.add(new DialogButton(DLG_CANCEL, this));
+			add(p2, BorderLayout.SOUTH);
+		}
+
+		/*
+		 *	The lines are shown with their indents, so that the nested
+		 *	declarations can be told apart.
+		 */
+		void setOutline(int[] rows, String[] lines) {
+			this.rows = rows;
+			labels = new String[lines.length];
+			for (int i = 0; i < lines.length; i += 1) {
+				String s = lines[i];
+				StringBuffer sb = new StringBuffer();
+				int col = 0;
+				while ((col < s.length())
+						&& PassiveModel.isWhitespace(s.charAt(col))) {
+					sb.append((s.charAt(col) == '\t') ? "  " : " ");
+					col += 1;
+				}
+				s = s.trim();
+				if (s.endsWith("{")) {
+					s = s.substring(0, s.length() - 1).trim();
+				}
+				labels[i] = sb.append(s).toString();
+			}
+		}
+
+		public void setVisible(boolean isVisible) {
+			if (isVisible) {
+				symbolField.setText("");
+				filterItems();
+			}
+			super.setVisible(isVisible);
+		}
+
+		private void filterItems() {
+			String symbol = symbolField.getText().trim().toLowerCase();
+			itemList.removeAll();
+			shownRows.removeAllElements();
+			for (int i = 0; i < labels.length; i += 1) {
+				if (labels[i].toLowerCase().indexOf(symbol) >= 0) {
+					itemList.add(labels[i]);
+					shownRows.addElement(rows[i]);
+				}
+			}
+			if (shownRows.size() > 0) {
+				itemList.select(0);
+			}
+		}
+
+		/*
+		 *	The selection of the list can be moved without leaving the field.
+		 */
+		public void keyPressed(KeyEvent e) {
+			int i = itemList.getSelectedIndex();
+			int count = itemList.getItemCount();
+			if ((e.getSource() != symbolField) || (count == 0)) {
+				return;
+			}
+			if (e.getKeyCode() == KeyEvent.VK_DOWN) {
+				i = Math.min(i + 1, count - 1);
+			} else if (e.getKeyCode() == KeyEvent.VK_UP) {
+				i = Math.max(i - 1, 0);
+			} else {
+				return;
+			}
+			itemList.select(i);
+			itemList.makeVisible(i);
+		}
+
+		public void textValueChanged(TextEvent e) {
+			filterItems();
+		}
+
+		public void actionPerformed(ActionEvent e) {
+			int i = itemList.getSelectedIndex();
+			if ((e.getSource() != itemList)
+					&& e.getActionCommand().equals(DLG_CANCEL)) {
+				dispose();
+			} else if (i >= 0) {
+				editor.goToLine(shownRows.elementAt(i) + 1);
+				dispose();
+			}
+		}
+
+	}
+
 }
@@ -30,6 +30,8 @@ class Editor extends AbstractEditor {
 
 	private static final String UNTITLED = "(Untitled)";
 
+	private static final int MAX_COMPLETION_COUNT = 16;
+
 	private static final String MSG_EXCEED_PASTE_LIMIT
 			= "The clipboard content is too large.";
 	private static final String MSG_CANNOT_FIND_MATCH
@@ -70,6 +72,7 @@ class Editor extends AbstractEditor {
 	private static final String MEN_FIND_PREVIOUS = "Find Previous";
 	private static final String MEN_REPLACE = "Replace...";
 	private static final String MEN_GO_TO = "Go To...";
+	private static final String MEN_OUTLINE = "Outline...";
 	private static final String MEN_SELECT_ALL = "Select All";
 	private static final String MEN_FORMAT = "Format";
 	private static final String MEN_WORD_WRAP = "Word Wrap";
@@ -81,6 +84,7 @@ class Editor extends AbstractEditor {
 	private DialogFactory.FindDialog findDialog;
 	private DialogFactory.ReplaceDialog replaceDialog;
 	private DialogFactory.GoToDialog goToDialog;
+	private DialogFactory.OutlineDialog outlineDialog;
 
 	private MenuItem undoMenuItem;
 	private MenuItem redoMenuItem;
@@ -142,6 +146,7 @@ class Editor extends AbstractEditor {
 		editMenu.add(findPreviousMenuItem);
 		editMenu.add(getMenuItem(MEN_REPLACE, KeyEvent.VK_H));
 		editMenu.add(getMenuItem(MEN_GO_TO, KeyEvent.VK_G));
+		editMenu.add(getMenuItem(MEN_OUTLINE, KeyEvent.VK_R));
 		editMenu.addSeparator();
 		selectAllMenuItem = getMenuItem(MEN_SELECT_ALL, KeyEvent.VK_A);
 		editMenu.add(selectAllMenuItem);
@@ -165,9 +170,11 @@ class Editor extends AbstractEditor {
 		findDialog = new DialogFactory.FindDialog(this);
 		replaceDialog = new DialogFactory.ReplaceDialog(this);
 		goToDialog = new DialogFactory.GoToDialog(this);
+		outlineDialog = new DialogFactory.OutlineDialog(this);
 		findDialog.pack(); // realize these dialogs in advance
 		replaceDialog.pack();
 		goToDialog.pack();
+		outlineDialog.pack();
 
 		/*
 		 *	This FocusListener was added for some old Java environments where
@@ -275,11 +282,7 @@ class Editor extends AbstractEditor {
 
 	void doTextChanged() {
 		Tab tab = activeTab;
-		boolean isTextChanged = true;
-		if ((tab.controller.getCharCount() == tab.savedText.length())
-				&& tab.controller.getText().equals(tab.savedText)) {
-			isTextChanged = false;
-		}
+		boolean isTextChanged = tab.controller.isTextChanged();
 
 		if ((tab != null) && (tab.isTextChanged != isTextChanged)) {
 			tab.isTextChanged = isTextChanged;
@@ -301,6 +304,55 @@ class Editor extends AbstractEditor {
 		updateCutCopyMenuItems();
 	}
 
+	/*
+	 *	Each model returns its words found in the most lines, and the counts
+	 *	of the same word in different tabs are added up. The words are sorted
+	 *	by insertion, since there are only a few of them. A tab whose words
+	 *	are still being indexed returns none.
+	 */
+	String[] getCompletions(String prefix) {
+		Vector words = new Vector(); // of String
+		AbstractModel.IntVector counts = new AbstractModel.IntVector();
+		for (int i = 0; i < tabCollection.size(); i += 1) {
+			tabCollection.get(i).model.getCompletions(prefix,
+					MAX_COMPLETION_COUNT, words, counts);
+		}
+
+		Hashtable countTable = new Hashtable(); // of String to int[1]
+		Vector wordVector = new Vector(); // of String, without duplicates
+		for (int i = 0; i < words.size(); i += 1) {
+			int[] count = (int[]) countTable.get(words.elementAt(i));
+			if (count == null) {
+				count = new int[1];
+				countTable.put(words.elementAt(i), count);
+				wordVector.addElement(words.elementAt(i));
+			}
+			count[0] += counts.elementAt(i);
+		}
+
+		String[] sortedWords = new String[wordVector.size()];
+		for (int i = 0; i < sortedWords.length; i += 1) {
+			String word = (String) wordVector.elementAt(i);
+			int count = ((int[]) countTable.get(word))[0];
+			int j = i;
+			while (j > 0) {
+				String w = sortedWords[j - 1];
+				int c = ((int[]) countTable.get(w))[0];
+				if ((c > count) || ((c == count) && (w.compareTo(word) < 0))) {
+					break;
+				}
+				sortedWords[j] = w;
+				j -= 1;
+			}
+			sortedWords[j] = word;
+		}
+
+		int count = Math.min(sortedWords.length, MAX_COMPLETION_COUNT);
+		String[] completions = new String[count];
+		System.arraycopy(sortedWords, 0, completions, 0, count);
+		return completions;
+	}
+
 	int closeDialogs() {
 		int count = 0;
 		if (findDialog.isVisible()) {
@@ -315,6 +367,10 @@ class Editor extends AbstractEditor {
 			goToDialog.dispose();
 			count += 1;
 		}
+		if (outlineDialog.isVisible()) {
+			outlineDialog.dispose();
+			count += 1;
+		}
 		return count;
 	}
 
@@ -400,6 +456,8 @@ class Editor extends AbstractEditor {
 			popupReplaceDialog(createMatchTarget());
 		} else if (cmd.equals(MEN_GO_TO)) {
 			goToDialog.setVisible(true);
+		} else if (cmd.equals(MEN_OUTLINE)) {
+			popupOutlineDialog();
 		} else if (cmd.equals(MEN_SELECT_ALL)) {
 			activeController.selectAll();
 		}
@@ -439,6 +497,19 @@ class Editor extends AbstractEditor {
 		replaceDialog.setTarget(target);
 	}
 
+	/*
+	 *	The outline is kept by the model, so only the listed lines are read.
+	 */
+	private void popupOutlineDialog() {
+		int[] rows = activeController.getOutlineRows();
+		String[] lines = new String[rows.length];
+		for (int i = 0; i < rows.length; i += 1) {
+			lines[i] = activeController.getLineText(rows[i]);
+		}
+		outlineDialog.setOutline(rows, lines);
+		outlineDialog.setVisible(true);
+	}
+
 	/* ---- Methods for the DialogFactory ---------------------------------- */
 
 	void findNext() {
@@ -575,7 +646,7 @@ class Editor extends AbstractEditor {
 	 *	returns false.
 	 */
 	private boolean isTextChangeHandled() {
-		if (activeController.getText().equals(activeTab.savedText)) {
+		if (! activeController.isTextChanged()) {
 			return true; // no need to save the file
 		}
 
@@ -648,18 +719,12 @@ class Editor extends AbstractEditor {
 			return false;
 		}
 
-		activeTab.savedText = activeController.getText();
-		writeFile(file, activeTab.savedText);
+		writeFile(file, activeController.getReader());
+		activeController.markSaved();
 		activeTab.isTextChanged = false;
 
 		String filename = getCanonicalFilename(file);
-		if (filename.endsWith(".md") || filename.endsWith(".markdown")) {
-			tabCollection.setSyntax(MARKDOWN_SYNTAX);
-		} else if (filename.endsWith(".java")) {
-			tabCollection.setSyntax(JAVA_SYNTAX);
-		} else {
-			tabCollection.setSyntax(PLAIN_SYNTAX);
-		}
+		tabCollection.setSyntax(getSyntax(filename));
 		tabCollection.tabBar.setTitle(filename);
 		tabCollection.tabBar.setChanged(false);
 		setTitle(getFullPath() + " - " + Main.NAME);
@@ -682,6 +747,42 @@ class Editor extends AbstractEditor {
 		return filename;
 	}
 
+	/*
+	 *	The syntax of a file is determined by the extension of its name.
+	 */
+	private static byte getSyntax(String filename) {
+		if (filename.endsWith(".md") || filename.endsWith(".markdown")) {
+			return MARKDOWN_SYNTAX;
+		} else if (filename.endsWith(".java")) {
+			return JAVA_SYNTAX;
+		} else if (filename.endsWith(".json")) {
+			return JSON_SYNTAX;
+		} else if (filename.endsWith(".xml") || filename.endsWith(".html")
+				|| filename.endsWith(".htm") || filename.endsWith(".xhtml")
+				|| filename.endsWith(".svg")) {
+			return XML_SYNTAX;
+		} else if (filename.endsWith(".properties")) {
+			return PROPERTIES_SYNTAX;
+		}
+		return PLAIN_SYNTAX;
+	}
+
+	private static AbstractModel createModel(byte syntax,
+			LineStore lineStore) {
+		if (syntax == MARKDOWN_SYNTAX) {
+			return new MarkdownSourceModel(lineStore);
+		} else if (syntax == JAVA_SYNTAX) {
+			return new JavaSourceModel(lineStore);
+		} else if (syntax == JSON_SYNTAX) {
+			return new JsonSourceModel(lineStore);
+		} else if (syntax == XML_SYNTAX) {
+			return new XmlSourceModel(lineStore);
+		} else if (syntax == PROPERTIES_SYNTAX) {
+			return new PropertiesSourceModel(lineStore);
+		}
+		return new PassiveModel(lineStore);
+	}
+
 	private void confirmExit() {
 		for (int i = (tabCollection.size() - 1); i >= 0; i -= 1) {
 			tabCollection.remove(true);
@@ -725,19 +826,27 @@ class Editor extends AbstractEditor {
 		return sb.toString();
 	}
 
-	private void writeFile(File file, String s) {
-		char[] chars = s.toCharArray();
+	/*
+	 *	The text is streamed from the reader, so that no copy of the whole
+	 *	document is needed to save it.
+	 */
+	private void writeFile(File file, Reader reader) {
 		BufferedWriter bw = null;
 		try {
 			bw = new BufferedWriter(new OutputStreamWriter(
 					new FileOutputStream(file), encoding));
-			for (int i = 0; i < chars.length; i += 1) {
-				char c = chars[i];
-				if (c == '\n') {
-					bw.newLine();
-				} else {
-					bw.write((int) c);
+			char[] buf = new char[8192];
+			int read;
+			while ((read = reader.read(buf, 0, buf.length)) > 0) {
+				int begin = 0;
+				for (int i = 0; i < read; i += 1) {
+					if (buf[i] == '\n') {
+						bw.write(buf, begin, i - begin);
+						bw.newLine();
+						begin = i + 1;
+					}
 				}
+				bw.write(buf, begin, read - begin);
 			}
 		} catch (IOException e) {
 			System.out.println(e);
@@ -755,34 +864,32 @@ class Editor extends AbstractEditor {
 	private class Tab {
 
 		private AbstractModel model;
+		private boolean isLargeFile = false;
 
 		File file;
-		String savedText = "";
 		boolean isTextChanged = false;
 		byte syntax;
 		AbstractController controller;
 		Point viewportOrigin = new Point();
 
-		Tab(File file) {
+		/*
+		 *	The text of a large file is loaded directly into the original
+		 *	buffer of a PieceTable, otherwise the text is null or should be set
+		 *	through the controller after the tab is created.
+		 */
+		Tab(File file, String text) {
 			this.file = file; // it can be null
-			if (file != null) {
-				String filename = getCanonicalFilename(file);
-				if (filename.endsWith(".md")
-						|| filename.endsWith(".markdown")) {
-					model = new MarkdownSourceModel();
-					syntax = MARKDOWN_SYNTAX;
-				} else if (filename.endsWith(".java")) {
-					model = new JavaSourceModel();
-					syntax = JAVA_SYNTAX;
-				} else {
-					model = new PassiveModel();
-					syntax = PLAIN_SYNTAX;
-				}
-			} else {
-				model = new PassiveModel();
-				syntax = PLAIN_SYNTAX;
+			LineStore lineStore = new LineArrayStore();
+			if ((file != null) && (text != null)
+					&& (file.length() > LARGE_FILE_SIZE)) {
+				lineStore = new PieceTable(text);
+				isLargeFile = true;
 			}
 
+			syntax = (file != null)
+					? getSyntax(getCanonicalFilename(file)) : PLAIN_SYNTAX;
+			model = createModel(syntax, lineStore);
+
 			if (view == null) {
 				view = AbstractEditor.createView(Editor.this, model);
 			} else {
@@ -791,21 +898,21 @@ class Editor extends AbstractEditor {
 			controller = new Controller(Editor.this, model, view);
 		}
 
+		boolean isPreloaded() {
+			return isLargeFile;
+		}
+
 		void updateViewModel() {
 			view.setModel(model);
 		}
 
 		synchronized void changeModelSyntax(byte syntax) {
 			this.syntax = syntax;
-			AbstractModel newModel;
-			if (syntax == MARKDOWN_SYNTAX) {
-				newModel = new MarkdownSourceModel();
-			} else if (syntax == JAVA_SYNTAX) {
-				newModel = new JavaSourceModel();
-			} else {
-				newModel = new PassiveModel();
-			}
+			LineStore lineStore = isLargeFile
+					? (LineStore) new PieceTable() : new LineArrayStore();
+			AbstractModel newModel = createModel(syntax, lineStore);
 			newModel.cloneFrom(model);
+			newModel.indexWords();
 
 			model = newModel;
 			updateViewModel();
@@ -864,7 +971,12 @@ class Editor extends AbstractEditor {
 				return;
 			}
 
-			Tab tab = new Tab(file);
+			String text = null;
+			if ((file != null) && file.exists()) {
+				text = readFile(file);
+			}
+
+			Tab tab = new Tab(file, text);
 			if (size() == 0) {
 				tab.controller.setEnabled(true);
 				Container c = tab.controller.getViewContainer();
@@ -873,23 +985,23 @@ class Editor extends AbstractEditor {
 
 			if (file == null) {
 				tabBar.add(UNTITLED);
-				tab.savedText = "";
 			} else {
 				tabBar.add(getCanonicalFilename(file));
-				if (file.exists()) {
-					tab.savedText = readFile(file);
+				if (text != null) {
 					/*
 					 *	This synchronization is required because if multiple
 					 *	files are opened programmatically, it may not have
 					 *	enough time to completely update the view.
 					 */
-					synchronized (view) {
-						tab.controller.setInitialText(tab.savedText);
+					if (! tab.isPreloaded()) {
+						synchronized (view) {
+							tab.controller.setInitialText(text);
+						}
 					}
-				} else {
-					tab.savedText = "";
 				}
 			}
+			tab.controller.markSaved();
+			tab.model.indexWords();
 			tabVector.addElement(tab);
 			select(size() - 1);
 		}
@@ -905,7 +1017,7 @@ class Editor extends AbstractEditor {
 					if (isExiting) {
 						System.exit(0);
 					} else {
-						Tab tab = new Tab(null);
+						Tab tab = new Tab(null, null);
 						tabVector.setElementAt(tab, 0);
 						tab.controller.setEnabled(true);
 						tabBar.setTitle(UNTITLED);
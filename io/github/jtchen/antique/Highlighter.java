@@ -0,0 +1,248 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.awt.*;
+
+/*
+ *	This class computes the syntax colors of the lines of a model in its own
+ *	thread, so that the view only paints the colors which are ready instead of
+ *	lexing the lines while painting. The visible rows are computed first, and
+ *	then the rest of the document.
+ *
+ *	An edit makes the colors of the changed lines unavailable. It may change
+ *	the colors of other lines as well (e.g. by opening a comment), and the
+ *	model tells which lines are recolored, so only they are computed again.
+ *	They keep their colors until then. The work for an older version is
+ *	dropped as soon as a new edit arrives.
+ *
+ *	The colors of a model are kept with it when another model is shown, so
+ *	switching back to a document does not compute its colors again unless it
+ *	has been changed meanwhile.
+ */
+class Highlighter implements ModelListener, Runnable {
+
+	private AbstractModel model;
+	private Component component; // repainted when visible colors are changed
+
+	/*
+	 *	The weight of a line is 1 if its colors have to be computed, so the
+	 *	next of them is found by the sum of the weights before it in O(log n).
+	 */
+	private LineTree colorSpansTree; // of int[], or null
+
+	private int version; // of the model when it was changed the last time
+
+	private static final Object COLORS_KEY = new Object(); // of the property
+
+	/*
+	 *	This is the property of a model which is not shown.
+	 */
+	private static class Colors {
+		LineTree colorSpansTree;
+		int version;
+	}
+
+	private int visibleBeginRow = 0;
+	private int visibleEndRow = -1;
+
+	/*
+	 *	The rows which are not visible are computed from the last changed row,
+	 *	wrapping around at the end of the document.
+	 */
+	private int sweepRow = 0;
+
+	Highlighter(AbstractModel model, Component component) {
+		this.component = component;
+		setModel(model);
+
+		Thread thread = new Thread(this, "Highlighter");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	synchronized void setModel(AbstractModel model) {
+		if (this.model != null) {
+			this.model.removeModelListener(this);
+			Colors colors = new Colors();
+			colors.colorSpansTree = colorSpansTree;
+			colors.version = version;
+			this.model.putProperty(COLORS_KEY, colors);
+		}
+		this.model = model;
+		model.addModelListener(this);
+
+		Colors colors = (Colors) model.getProperty(COLORS_KEY);
+		model.putProperty(COLORS_KEY, null);
+		if ((colors != null) && (colors.version == model.getVersion())) {
+			colorSpansTree = colors.colorSpansTree;
+		} else {
+			colorSpansTree = new LineTree();
+			for (int row = 0; row < model.getLineCount(); row += 1) {
+				colorSpansTree.insertElementAt(null, row, 1);
+			}
+		}
+		changed(0);
+	}
+
+	/*
+	 *	This method is called by the view before painting, and the given rows
+	 *	are computed before the others.
+	 */
+	synchronized void setVisibleRows(int beginRow, int endRow) {
+		if ((beginRow != visibleBeginRow) || (endRow != visibleEndRow)) {
+			visibleBeginRow = beginRow;
+			visibleEndRow = endRow;
+			notify();
+		}
+	}
+
+	/*
+	 *	This method returns the newest syntax colors of the given row, or
+	 *	null if the line has been changed since they were computed.
+	 */
+	synchronized int[] getColorSpans(int row) {
+		if (row >= colorSpansTree.size()) {
+			return null;
+		}
+		return (int[]) colorSpansTree.elementAt(row);
+	}
+
+	/*
+	 *	This method is called in the thread editing the model, after the
+	 *	model has been updated to the new version.
+	 */
+	public synchronized void modelChanged(ModelEvent e) {
+		int end = Math.min(e.firstRow + e.oldLineCount, colorSpansTree.size());
+		if (e.firstRow < end) {
+			colorSpansTree.removeElements(e.firstRow, end - 1);
+		}
+		for (int i = 0; i < e.newLineCount; i += 1) {
+			colorSpansTree.insertElementAt(null, e.firstRow, 1);
+		}
+
+		int endRow = Math.min(model.getRecoloredEndRow(),
+				colorSpansTree.size() - 1);
+		for (int row = model.getRecoloredBeginRow(); row <= endRow; row += 1) {
+			colorSpansTree.setElementAt(colorSpansTree.elementAt(row), row, 1);
+		}
+		changed(e.firstRow);
+	}
+
+	private void changed(int firstRow) {
+		version = model.getVersion();
+		sweepRow = firstRow;
+		notify();
+	}
+
+	/*
+	 *	This method returns the first row not less than the given row whose
+	 *	colors have to be computed, or -1 if there is none.
+	 */
+	private int findOutdatedRow(int row) {
+		int sum = colorSpansTree.getWeightSum(row);
+		if (sum == colorSpansTree.getWeightSum(colorSpansTree.size())) {
+			return -1;
+		}
+		return colorSpansTree.indexOfWeightSum(sum);
+	}
+
+	/*
+	 *	This method returns the next row to compute, or -1 if all the rows
+	 *	are up to date.
+	 */
+	private int getNextRow() {
+		int size = colorSpansTree.size();
+		int row = findOutdatedRow(Math.min(Math.max(visibleBeginRow, 0), size));
+		if ((row >= 0) && (row <= visibleEndRow)) {
+			return row;
+		}
+
+		row = findOutdatedRow(Math.min(sweepRow, size));
+		if (row < 0) {
+			row = findOutdatedRow(0);
+		}
+		sweepRow = row + 1;
+		return row;
+	}
+
+	public void run() {
+		while (true) {
+			AbstractModel m;
+			int v;
+			int row;
+			synchronized (this) {
+				row = getNextRow();
+				while (row < 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+					row = getNextRow();
+				}
+				m = model;
+				v = version;
+			}
+
+			/*
+			 *	The model is locked while the colors are computed, so the text
+			 *	cannot be changed in between. If it has been changed already,
+			 *	the new version will be notified by modelChanged().
+			 */
+			int[] colorSpans = null;
+			synchronized (m) {
+				if (m.getVersion() == v) {
+					colorSpans = m.getSyntaxColorSpans(row);
+				}
+			}
+
+			synchronized (this) {
+				if ((m != model) || (v != version)) {
+					continue; // stale work
+				}
+				if (colorSpans == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+					continue;
+				}
+				publish(row, colorSpans);
+			}
+		}
+	}
+
+	/*
+	 *	The view is only repainted if the colors of a visible row are changed.
+	 */
+	private void publish(int row, int[] colorSpans) {
+		int[] oldColorSpans = (int[]) colorSpansTree.elementAt(row);
+		colorSpansTree.setElementAt(colorSpans, row, 0);
+		if ((! isEqual(oldColorSpans, colorSpans))
+				&& (row >= visibleBeginRow) && (row <= visibleEndRow)) {
+			component.repaint();
+		}
+	}
+
+	private static boolean isEqual(int[] a, int[] b) {
+		if (a == b) {
+			return true;
+		}
+		if ((a == null) || (a.length != b.length)) {
+			return false;
+		}
+		for (int i = 0; i < a.length; i += 1) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This is the base of the models which keep some data for each line to
+ *	highlight the syntax, e.g. the state of a lexer at the end of the line.
+ *	The lines changed by an edit are marked dirty, and their data are updated
+ *	in modified(). The following lines are updated as well, but only until a
+ *	line begins in the same state as before, since the rest of the lines would
+ *	be updated the same way. A subclass defines how a line is updated.
+ */
+abstract class IncrementalModel extends PassiveModel {
+
+	LineTree lineDataTree; // the weights are up to the subclass
+
+	/*
+	 *	The lines between `firstDirtyRow` and `lastDirtyRow` may have been
+	 *	changed since the last call of modified().
+	 */
+	private int firstDirtyRow = -1;
+	private int lastDirtyRow = -1;
+
+	IncrementalModel(LineStore lineStore, LineTree lineDataTree) {
+		super(lineStore);
+		this.lineDataTree = lineDataTree;
+	}
+
+	/*
+	 *	This method is called at the end of the constructor of a subclass, so
+	 *	that the subclass is ready to update the lines.
+	 */
+	void updateAllLines() {
+		for (int row = 0; row < getLineCount(); row += 1) {
+			lineDataTree.addElement(getChangedLineData(getLine(row), row));
+		}
+		markDirty(0);
+		markDirty(getLineCount() - 1);
+		modified();
+	}
+
+	/*
+	 *	This method returns the data of a changed line, which are kept until
+	 *	the line is updated, and they may be null.
+	 */
+	abstract Object getChangedLineData(char[] line, int row);
+
+	/*
+	 *	This method returns the count of the lines above and below the dirty
+	 *	lines which are always updated as well, because the data of a line
+	 *	may depend on its neighbors. So may its colors, and the lines around
+	 *	the updated lines are recolored as well.
+	 */
+	int getDirtyMargin() {
+		return 0;
+	}
+
+	/*
+	 *	This method is called before the lines from the given row are updated
+	 *	in order, e.g. to restore the state at the end of the line above.
+	 */
+	abstract void beginUpdate(int row);
+
+	/*
+	 *	This method updates the data of a line if it is dirty or it begins in
+	 *	another state than before. Otherwise, it returns false, and the rest of
+	 *	the lines are not updated.
+	 */
+	abstract boolean updateLine(int row, boolean isDirty);
+
+	boolean hasDirtyLines() {
+		return (firstDirtyRow >= 0);
+	}
+
+	/* ---- Override the basic operations of PassiveModel ------------------ */
+
+	void setLine(char[] line, int row) {
+		super.setLine(line, row);
+		lineDataTree.setElementAt(getChangedLineData(line, row), row);
+		markDirty(row);
+	}
+
+	void insertLine(char[] line, int row) {
+		super.insertLine(line, row);
+		lineDataTree.insertElementAt(getChangedLineData(line, row), row);
+		if (lastDirtyRow >= row) {
+			lastDirtyRow += 1;
+		}
+		markDirty(row);
+	}
+
+	void removeLine(int row) {
+		super.removeLine(row);
+		lineDataTree.removeElementAt(row);
+		linesRemoved(row, row);
+	}
+
+	void removeLines(int beginRow, int endRow) {
+		super.removeLines(beginRow, endRow);
+		lineDataTree.removeElements(beginRow, endRow);
+		linesRemoved(beginRow, endRow);
+	}
+
+	void lineEdited(int row) {
+		lineDataTree.setElementAt(getChangedLineData(getLine(row), row), row);
+		markDirty(row);
+	}
+
+	/* ---- Methods to update the lines incrementally ---------------------- */
+
+	private void markDirty(int row) {
+		if ((firstDirtyRow < 0) || (row < firstDirtyRow)) {
+			firstDirtyRow = row;
+		}
+		if (row > lastDirtyRow) {
+			lastDirtyRow = row;
+		}
+	}
+
+	/*
+	 *	The line following the removed lines may begin in another state, so
+	 *	it is checked again as well.
+	 */
+	void linesRemoved(int beginRow, int endRow) {
+		if (lastDirtyRow > endRow) {
+			lastDirtyRow -= (endRow - beginRow + 1);
+		} else if (lastDirtyRow >= beginRow) {
+			lastDirtyRow = beginRow;
+		}
+		markDirty(beginRow);
+	}
+
+	void modified() {
+		if (firstDirtyRow < 0) {
+			return;
+		}
+
+		int margin = getDirtyMargin();
+		int beginRow = Math.max(firstDirtyRow - margin, 0);
+		int row = beginRow;
+		beginUpdate(row);
+		while ((row < lineDataTree.size())
+				&& updateLine(row, (row <= (lastDirtyRow + margin)))) {
+			row += 1;
+		}
+		firstDirtyRow = -1;
+		lastDirtyRow = -1;
+		addRecoloredRows(beginRow - margin, (row - 1) + margin);
+	}
+
+}
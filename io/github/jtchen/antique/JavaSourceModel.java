@@ -5,13 +5,11 @@
 
 package io.github.jtchen.antique;
 
-import java.util.*;
-
 /*
  *	This is an implementation of a model that supports syntax highlighting of
  *	the Java programming language.
  */
-class JavaSourceModel extends PassiveModel {
+class JavaSourceModel extends IncrementalModel {
 
 	private static final byte COLOR_BRACKET = Theme.IMPORTANT;
 	private static final byte COLOR_KEYWORD = Theme.PRIMARY_BLOCK;
@@ -37,351 +35,616 @@ class JavaSourceModel extends PassiveModel {
 		keywords[12] = new String[] { "synchronized" };
 	}
 
+	/*
+	 *	The keywords and the literals are kept in an open addressing hash
+	 *	table of char arrays, so that a word can be looked up directly in a
+	 *	line without creating a String. An empty slot has no color (0).
+	 */
+	private static final int WORD_TABLE_SIZE = 128; // a power of 2
+	private static char[][] wordTable = new char[WORD_TABLE_SIZE][];
+	private static byte[] wordColorTable = new byte[WORD_TABLE_SIZE];
+	static {
+		for (int len = 0; len < keywords.length; len += 1) {
+			for (int i = 0; (keywords[len] != null)
+					&& (i < keywords[len].length); i += 1) {
+				addWord(keywords[len][i], COLOR_KEYWORD);
+			}
+		}
+		addWord("true", COLOR_LITERAL);
+		addWord("false", COLOR_LITERAL);
+		addWord("null", COLOR_LITERAL);
+	}
+
+	/*
+	 *	The methods of Character are relatively slow, so the results for the
+	 *	ASCII chars are kept in tables.
+	 */
+	private static boolean[] asciiIdentifierStarts = new boolean[128];
+	private static boolean[] asciiIdentifierParts = new boolean[128];
+	static {
+		for (char c = 0; c < 128; c += 1) {
+			asciiIdentifierStarts[c] = Character.isJavaIdentifierStart(c);
+			asciiIdentifierParts[c] = Character.isJavaIdentifierPart(c);
+		}
+	}
+
 	private static final String OPERATORS = "=><!~?:+-*/&|^%";
 
+	/*
+	 *	The underscores can only appear between digits, so a sequence of
+	 *	digits is written as [0-9]([0-9_]*[0-9])? here.
+	 */
 	private static String[] numberPatterns = new String[] {
 		"0[lL]?",
-		"[1-9]([0-9]+)?[lL]?",
-		"0[xX][0-9a-fA-F]+[lL]?",
-		"0[0-7]+[lL]?",
-		"[0-9]+.([0-9]+)?([eE][+-]?[0-9]+)?[fFdD]?",
-		".[0-9]+([eE][+-]?[0-9]+)?[fFdD]?",
-		"[0-9]+([eE][+-]?[0-9]+)[fFdD]?",
-		"[0-9]+([eE][+-]?[0-9]+)?[fFdD]"
+		"[1-9]([0-9_]*[0-9])?[lL]?",
+		"0[xX][0-9a-fA-F]([0-9a-fA-F_]*[0-9a-fA-F])?[lL]?",
+		"0[bB][01]([01_]*[01])?[lL]?",
+		"0[0-7_]*[0-7][lL]?",
+		"[0-9]([0-9_]*[0-9])?\\.([0-9]([0-9_]*[0-9])?)?"
+				+ "([eE][+-]?[0-9]([0-9_]*[0-9])?)?[fFdD]?",
+		"\\.[0-9]([0-9_]*[0-9])?([eE][+-]?[0-9]([0-9_]*[0-9])?)?[fFdD]?",
+		"[0-9]([0-9_]*[0-9])?([eE][+-]?[0-9]([0-9_]*[0-9])?)[fFdD]?",
+		"[0-9]([0-9_]*[0-9])?([eE][+-]?[0-9]([0-9_]*[0-9])?)?[fFdD]"
 	};
-	private Vector numberRuleVector = new Vector(); // of Rule
-
-	private Vector linePropertyVector = new Vector(); // of LineProperty
-	private Vector commentRangeVector = new Vector(); // of Range
-
+	private static PatternMatcher numberMatcher
+			= new PatternMatcher(numberPatterns);
+
+	/*
+	 *	Strings and chars cannot span lines in Java, so a line can only end in
+	 *	a block comment or in the normal state.
+	 */
+	static final byte STATE_NORMAL = 0;
+	private static final byte STATE_COMMENT = 1;
+
+	private byte lexState; // at the end of the line above, see updateLine()
+
+	/*
+	 *	A LineProperty is replaced whenever its line or the state at the
+	 *	beginning of the line is changed, so the token spans cached in it are
+	 *	always up to date.
+	 */
 	private static class LineProperty {
-		IntVector commentBeginVector;
-		IntVector commentEndVector;
+		byte beginState;
+		byte endState;
+		IntVector commentVector; // pairs of the begin and end columns
+		IntVector bracketVector; // pairs of the column and the kind
+		int[] bracketSummary = EMPTY_BRACKET_SUMMARY; // see BracketSummarizer
+		int[] tokenSpans; // see ColorSpans
 	}
 
+	/*
+	 *	The kind of a bracket is its index in BRACKETS, and its type is the
+	 *	kind modulo BRACKET_TYPE_COUNT.
+	 */
+	private static final String BRACKETS = "([{)]}";
+	private static final int BRACKET_TYPE_COUNT = 3;
+	private static final int[] EMPTY_BRACKET_SUMMARY
+			= new int[BRACKET_TYPE_COUNT * 3];
+
 	private Range bracketedRange = null;
-	private char[] beginBrackets = new char[] { '(', '[', '{' };
-	private char[] endBrackets = new char[] { ')', ']', '}' };
 
 	JavaSourceModel() {
-		super();
-		linePropertyVector.insertElementAt(getLineProperty(new char[0]), 0);
+		this(new LineArrayStore());
+	}
 
-		for (int i = 0; i < numberPatterns.length; i += 1) {
-			Rule rule = new Rule(parseRule(numberPatterns[i]));
-			numberRuleVector.addElement(rule);
-		}
+	/*
+	 *	The lineDataTree holds a LineProperty for each line, and the weight of
+	 *	a line is 1 if it is a declaration (see getOutlineRows()), or 0
+	 *	otherwise. The properties of the changed lines are null.
+	 */
+	JavaSourceModel(LineStore lineStore) {
+		super(lineStore, new LineTree(new BracketSummarizer()));
+		updateAllLines();
 	}
 
-	private LineProperty getLineProperty(char[] line) {
+	/*
+	 *	This method lexes a line from the given state to find the block
+	 *	comments and the brackets in it. The line comments and the quoted
+	 *	strings are skipped, so the delimiters and brackets in them are
+	 *	ignored.
+	 */
+	private static LineProperty getLineProperty(char[] line, byte beginState) {
 		LineProperty lp = new LineProperty();
-		for (int col = 0; col < (line.length - 1); col += 1) {
-			if ((line[col] == '/') && (line[col + 1] == '*')) {
-				if (lp.commentBeginVector == null) {
-					lp.commentBeginVector = new IntVector();
+		lp.beginState = beginState;
+		byte state = beginState;
+		int commentBegin = 0;
+		int col = 0;
+		while (col < line.length) {
+			char c = line[col];
+			boolean hasNext = ((col + 1) < line.length);
+			if (state == STATE_COMMENT) {
+				if ((c == '*') && hasNext && (line[col + 1] == '/')) {
+					addComment(lp, commentBegin, col + 2);
+					state = STATE_NORMAL;
+					col += 2;
+				} else {
+					col += 1;
 				}
-				lp.commentBeginVector.addElement(col);
-			} else if ((line[col] == '*') && (line[col + 1] == '/')) {
-				if (lp.commentEndVector == null) {
-					lp.commentEndVector = new IntVector();
+			} else if ((c == '/') && hasNext && (line[col + 1] == '/')) {
+				break; // the rest of the line is a line comment
+			} else if ((c == '/') && hasNext && (line[col + 1] == '*')) {
+				commentBegin = col;
+				state = STATE_COMMENT;
+				col += 2;
+			} else if ((c == '"') || (c == '\'')) {
+				col = parseQuoted(line, col, c);
+			} else {
+				if (BRACKETS.indexOf(c) >= 0) {
+					addBracket(lp, col, BRACKETS.indexOf(c));
 				}
-				lp.commentEndVector.addElement(col + 1);
+				col += 1;
 			}
 		}
+		if (state == STATE_COMMENT) {
+			addComment(lp, commentBegin, line.length);
+		}
+		lp.endState = state;
 		return lp;
 	}
 
-	void setCaret(int row, int col) {
-		super.setCaret(row, col);
+	private static void addBracket(LineProperty lp, int col, int kind) {
+		if (lp.bracketVector == null) {
+			lp.bracketVector = new IntVector();
+			lp.bracketSummary = new int[BRACKET_TYPE_COUNT * 3];
+		}
+		lp.bracketVector.addElement(col);
+		lp.bracketVector.addElement(kind);
+
+		int[] summary = new int[BRACKET_TYPE_COUNT * 3];
+		int t = (kind % BRACKET_TYPE_COUNT) * 3;
+		summary[t] = (kind < BRACKET_TYPE_COUNT) ? 1 : -1;
+		summary[t + 1] = Math.min(summary[t], 0);
+		summary[t + 2] = Math.max(summary[t], 0);
+		combineBracketSummary(lp.bracketSummary, summary);
+	}
 
-		Range range = null;
-		char[] line = getLine(row);
-		loop: for (int i = col; i >= (col - 1); i -= 1) {
-			if ((i >= 0) && (line.length > i)) {
-				for (int j = 0; j < beginBrackets.length; j += 1) {
-					if ((range = getBracketedRange(row, i,
-							beginBrackets[j], endBrackets[j])) != null) {
-						break loop;
-					} else if ((range = getBracketedRange(row, i,
-							endBrackets[j], beginBrackets[j])) != null) {
-						break loop;
-					}
-				}
-			}
+	private static void addComment(LineProperty lp, int begin, int end) {
+		if (lp.commentVector == null) {
+			lp.commentVector = new IntVector();
 		}
-		bracketedRange = range;
+		lp.commentVector.addElement(begin);
+		lp.commentVector.addElement(end);
 	}
 
-	/* ---- Override the basic operations of PassiveModel ------------------ */
+	synchronized void setCaret(int row, int col) {
+		super.setCaret(row, col);
+		if (isInBatch() || hasDirtyLines()) {
+			bracketedRange = null; // brackets will be matched in modified()
+			return;
+		}
+		matchBrackets();
+	}
+
+	/* ---- Methods to lex block comments incrementally -------------------- */
 
-	void setLine(char[] line, int row) {
-		super.setLine(line, row);
-		linePropertyVector.setElementAt(getLineProperty(line), row);
+	Object getChangedLineData(char[] line, int row) {
+		return null; // lexed in updateLine()
 	}
 
-	void insertLine(char[] line, int row) {
-		super.insertLine(line, row);
-		linePropertyVector.insertElementAt(getLineProperty(line), row);
+	void beginUpdate(int row) {
+		lexState = STATE_NORMAL;
+		if (row > 0) {
+			lexState = ((LineProperty) lineDataTree.elementAt(row - 1))
+					.endState;
+		}
 	}
 
-	void removeLine(int row) {
-		super.removeLine(row);
-		linePropertyVector.removeElementAt(row);
+	boolean updateLine(int row, boolean isDirty) {
+		LineProperty lp = (LineProperty) lineDataTree.elementAt(row);
+		if ((lp == null) || (lp.beginState != lexState)) {
+			char[] line = getLine(row);
+			lp = getLineProperty(line, lexState);
+			int weight = isDeclaration(line, lp) ? 1 : 0;
+			lineDataTree.setElementAt(lp, row, weight);
+		} else if (! isDirty) {
+			return false;
+		}
+		lexState = lp.endState;
+		return true;
+	}
+
+	private static boolean isInsideComment(LineProperty lp, int col) {
+		if ((lp == null) || (lp.commentVector == null)) {
+			return false;
+		}
+		IntVector v = lp.commentVector;
+		for (int i = 0; i < v.size(); i += 2) {
+			if ((v.elementAt(i) <= col) && (col < v.elementAt(i + 1))) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	/* ---- Methods to locate block comments ------------------------------- */
+	/* ---- Methods to find the declarations ------------------------------- */
 
-	private int[] findCommentBound(int row, int col, boolean isBegin) {
-		for (int r = row; r < linePropertyVector.size(); r += 1) {
-			int beginCol = (r == row) ? col : 0;
-			LineProperty lp = (LineProperty) linePropertyVector.elementAt(r);
-			IntVector v = isBegin
-					? lp.commentBeginVector : lp.commentEndVector;
-			if (v == null) {
+	/*
+	 *	The first word of a statement, which cannot begin a declaration.
+	 *	The word "synchronized" is not here, since it may be a modifier.
+	 */
+	private static String[] statementWords = new String[] {
+		"assert", "break", "case", "catch", "continue", "default", "do",
+		"else", "finally", "for", "if", "import", "new", "package", "return",
+		"super", "switch", "this", "throw", "try", "while"
+	};
+
+	/*
+	 *	The declarations are guessed from the tokens of a single line, like
+	 *	the colors. A line declares a type if it has the word "class",
+	 *	"interface" or "enum", or a method if a type and a name are followed
+	 *	by "(". A constructor has no type, so only a capitalized name is taken
+	 *	whose parameters are followed by the opening brace on the same line.
+	 */
+	private static boolean isDeclaration(char[] line, LineProperty lp) {
+		int words = 0; // of the type and the name, a dotted name is one word
+		int angleDepth = 0; // of the type arguments
+		boolean isJoined = false; // whether the next word is a part of a name
+		int nameCol = -1;
+		for (int col = 0; col < line.length; col += 1) {
+			char c = line[col];
+			if (isWhitespace(c) || isInsideComment(lp, col)) {
 				continue;
 			}
 
-			for (int i = 0; i < v.size(); i += 1) {
-				int comCol = v.elementAt(i);
-				if (comCol >= beginCol) {
-					return new int[] { r, comCol };
+			if (isIdentifierStart(c)) {
+				int end = parseIdentifier(line, col);
+				if (isWord(line, col, end, "class")
+						|| isWord(line, col, end, "interface")
+						|| isWord(line, col, end, "enum")) {
+					return (! isJoined); // but not e.g. "String.class"
+				}
+				if ((words == 0) && isStatementWord(line, col, end)) {
+					return false;
 				}
+				if ((! isJoined) && (angleDepth == 0)
+						&& (! isWord(line, col, end, "synchronized"))) {
+					words += 1;
+					nameCol = col;
+				}
+				isJoined = false;
+				col = end - 1;
+			} else if ((c == '.') || (c == '@')) {
+				isJoined = true;
+			} else if (c == '<') {
+				angleDepth += 1;
+			} else if (c == '>') {
+				angleDepth -= 1;
+			} else if ((c == '(') && (words >= 2)) {
+				return true;
+			} else if ((c == '(') && (words == 1)) {
+				return Character.isUpperCase(line[nameCol])
+						&& isConstructorBody(line, lp, col);
+			} else if ((c != '[') && (c != ']') && (c != '?')
+					&& (angleDepth == 0)) {
+				return false;
 			}
 		}
-		return null;
-	}
-
-	private int[] findCommentBegin(int row, int col) {
-		return findCommentBound(row, col, true);
-	}
-
-	private int[] findCommentEnd(int row, int col) {
-		return findCommentBound(row, col, false);
+		return false;
 	}
 
-	private void computeCommentRanges() {
-		commentRangeVector.setSize(0);
-		int[] pos = new int[] { 0, 0 };
-
-		while (true) {
-			pos = findCommentBegin(pos[0], pos[1]);
-			if (pos == null) {
+	/*
+	 *	This method checks that the parameters from the given "(" have no
+	 *	other parentheses, and they are only followed by the throws clause
+	 *	and the opening brace.
+	 */
+	private static boolean isConstructorBody(char[] line, LineProperty lp,
+			int begin) {
+		int col = begin + 1;
+		while ((col < line.length) && (line[col] != ')')) {
+			if ((line[col] == '(') && (! isInsideComment(lp, col))) {
+				return false;
+			}
+			col += 1;
+		}
+		boolean hasBrace = false;
+		for (col += 1; col < line.length; col += 1) {
+			char c = line[col];
+			if (isWhitespace(c) || isInsideComment(lp, col)) {
+				continue;
+			}
+			if ((c == '/') && ((col + 1) < line.length)
+					&& (line[col + 1] == '/')) {
 				break;
-			} else {
-				Range range = new Range();
-				range.setBegin(pos[0], pos[1]);
-				pos = findCommentEnd(pos[0], pos[1] + 3);
-				if (pos == null) {
-					break;
-				} else {
-					range.setEnd(pos[0], pos[1]);
-					commentRangeVector.addElement(range);
-					pos[1] += 1;
-				}
+			} else if (hasBrace) {
+				return false;
+			} else if (c == '{') {
+				hasBrace = true;
+			} else if (! (isIdentifierPart(c) || (c == '.') || (c == ','))) {
+				return false;
 			}
 		}
+		return hasBrace;
 	}
 
-	/* ---- Methods to match brackets -------------------------------------- */
-
-	private Range getBracketedRange(int row, int col, char c1, char c2) {
-		if ((getLine(row)[col] == c1) && isValidBracket(row, col)) {
-			int[] pos = null;
-			if (c2 > c1) {
-				pos = findBracketForward(c1, c2, row, col);
-			} else {
-				pos = findBracketBackward(c1, c2, row, col);
-			}
-			if (pos != null) {
-				Range range = new Range();
-				range.setBegin(row, col);
-				range.setEnd(pos[0], pos[1]);
-				return range;
+	private static boolean isStatementWord(char[] chars, int begin, int end) {
+		for (int i = 0; i < statementWords.length; i += 1) {
+			if (isWord(chars, begin, end, statementWords[i])) {
+				return true;
 			}
 		}
-		return null;
+		return false;
 	}
 
-	private int[] findBracketForward(char c1, char c2, int row, int col) {
-		int level = 1;
-		for (int i = row; i < getLineCount(); i += 1) {
-			char[] line = getLine(i);
-			int beginCol = (i == row) ? col + 1 : 0;
-			for (int j = beginCol; j < line.length; j += 1) {
-				if ((level = updateLevel(level, line, c1, c2, i, j)) == 0) {
-					return new int[] { i, j };
-				}
+	private static boolean isWord(char[] chars, int begin, int end,
+			String word) {
+		if ((end - begin) != word.length()) {
+			return false;
+		}
+		for (int i = begin; i < end; i += 1) {
+			if (chars[i] != word.charAt(i - begin)) {
+				return false;
 			}
 		}
-		return null;
+		return true;
+	}
+
+	/*
+	 *	A declaration has the weight 1 in the lineDataTree, so each of
+	 *	them is found by the sum of the weights before it in O(log n).
+	 */
+	synchronized int[] getOutlineRows() {
+		LineTree tree = lineDataTree;
+		int[] rows = new int[tree.getWeightSum(tree.size())];
+		for (int i = 0; i < rows.length; i += 1) {
+			rows[i] = tree.indexOfWeightSum(i);
+		}
+		return rows;
 	}
 
-	private int[] findBracketBackward(char c1, char c2, int row, int col) {
-		int level = 1;
-		for (int i = row; i >= 0; i -= 1) {
-			char[] line = getLine(i);
-			int beginCol = (i == row) ? col - 1 : line.length - 1;
-			for (int j = beginCol; j >= 0; j -= 1) {
-				if ((level = updateLevel(level, line, c1, c2, i, j)) == 0) {
-					return new int[] { i, j };
+	/* ---- Methods to match brackets -------------------------------------- */
+
+	private void matchBrackets() {
+		Range range = null;
+		int row = getCaretRow();
+		int col = getCaretColumn();
+		for (int i = col; (i >= (col - 1)) && (range == null); i -= 1) {
+			int kind = (i >= 0) ? getBracketKind(row, i) : -1;
+			if (kind >= 0) {
+				int[] pos = findMatchingBracket(row, i, kind);
+				if (pos != null) {
+					range = new Range();
+					range.setBegin(row, i);
+					range.setEnd(pos[0], pos[1]);
 				}
 			}
 		}
-		return null;
+		bracketedRange = range;
 	}
 
-	private int updateLevel(
-			int level, char[] line, char c1, char c2, int row, int col) {
-		if ((line[col] == c1) && isValidBracket(row, col)) {
-			level += 1;
-		} else if ((line[col] == c2) && isValidBracket(row, col)) {
-			level -= 1;
+	private int getBracketKind(int row, int col) {
+		LineProperty lp = (LineProperty) lineDataTree.elementAt(row);
+		if ((lp == null) || (lp.bracketVector == null)) {
+			return -1;
+		}
+		IntVector v = lp.bracketVector;
+		for (int i = 0; i < v.size(); i += 2) {
+			if (v.elementAt(i) == col) {
+				return v.elementAt(i + 1);
+			}
 		}
-		return level;
+		return -1;
 	}
 
-	/* ---- Methods to determine the color codes --------------------------- */
+	/*
+	 *	The lines are searched through the summaries of the brackets in the
+	 *	lineDataTree, so the matching bracket is found in O(log n) even if
+	 *	it is far away. Only the brackets of the same type are counted.
+	 */
+	private int[] findMatchingBracket(int row, int col, int kind) {
+		int type = kind % BRACKET_TYPE_COUNT;
+		boolean isForward = (kind < BRACKET_TYPE_COUNT);
+		BracketSearcher searcher = new BracketSearcher(type, isForward);
+		int found = findBracketInLine(row, col, searcher);
+		if (found >= 0) {
+			return new int[] { row, found };
+		}
 
-	void modified() {
-		computeCommentRanges();
+		int r = isForward ? lineDataTree.search(row + 1, searcher)
+				: lineDataTree.searchBackward(row - 1, searcher);
+		if (r < 0) {
+			return null;
+		}
+		int from = isForward ? -1 : getLine(r).length;
+		return new int[] { r, findBracketInLine(r, from, searcher) };
 	}
 
-	private boolean isRangeContains(Range range, int row, int col) {
-		range = range.getForwardRange();
-		if (range.beginRow != range.endRow) {
-			if (((row == range.beginRow) && (range.beginColumn <= col))
-					|| ((row == range.endRow) && (col <= range.endColumn))
-					|| ((range.beginRow < row) && (row < range.endRow))) {
-				return true;
+	/*
+	 *	This method looks for the column at which the depth of the searcher
+	 *	becomes 0 after (or before if backward) the given column.
+	 */
+	private int findBracketInLine(int row, int col, BracketSearcher searcher) {
+		LineProperty lp = (LineProperty) lineDataTree.elementAt(row);
+		if ((lp == null) || (lp.bracketVector == null)) {
+			return -1;
+		}
+		IntVector v = lp.bracketVector;
+		int n = v.size() / 2;
+		for (int k = 0; k < n; k += 1) {
+			int i = searcher.isForward ? (k * 2) : ((n - k - 1) * 2);
+			int c = v.elementAt(i);
+			int kind = v.elementAt(i + 1);
+			if (((kind % BRACKET_TYPE_COUNT) != searcher.type)
+					|| (searcher.isForward ? (c <= col) : (c >= col))) {
+				continue;
+			}
+			boolean isOpen = (kind < BRACKET_TYPE_COUNT);
+			searcher.depth += (isOpen == searcher.isForward) ? 1 : -1;
+			if (searcher.depth == 0) {
+				return c;
 			}
-		} else if ((row == range.beginRow) // range.beginRow == range.endRow
-				&& (range.beginColumn <= col) && (col <= range.endColumn)) {
-			return true;
 		}
-		return false;
+		return -1;
 	}
 
-	private boolean isInsideCommentRanges(int row, int col) {
-		for (int i = 0; i < commentRangeVector.size(); i += 1) {
-			Range range = (Range) commentRangeVector.elementAt(i);
-			if (isRangeContains(range, row, col)) {
-				return true;
+	/*
+	 *	The summary of the brackets of some lines has three ints for each
+	 *	type: the sum of the depths (an open bracket is +1, a close one is
+	 *	-1), the minimum prefix sum and the maximum suffix sum, where the
+	 *	empty prefix and suffix are also counted.
+	 */
+	private static class BracketSummarizer extends LineTree.Summarizer {
+
+		Object getSummary(Object element) {
+			LineProperty lp = (LineProperty) element;
+			return (lp == null) ? EMPTY_BRACKET_SUMMARY : lp.bracketSummary;
+		}
+
+		Object combine(Object[] summaries, int count) {
+			int[] result = new int[BRACKET_TYPE_COUNT * 3];
+			for (int i = 0; i < count; i += 1) {
+				combineBracketSummary(result, (int[]) summaries[i]);
 			}
+			return result;
 		}
-		return false;
+
 	}
 
-	private boolean isValidBracket(int row, int col) {
-		if (isInsideCommentRanges(row, col)) {
-			return false;
+	/*
+	 *	This method appends the brackets of the given summary to the result.
+	 */
+	private static void combineBracketSummary(int[] result, int[] summary) {
+		for (int t = 0; t < (BRACKET_TYPE_COUNT * 3); t += 3) {
+			result[t + 1] = Math.min(result[t + 1],
+					result[t] + summary[t + 1]);
+			result[t + 2] = Math.max(summary[t + 2],
+					summary[t] + result[t + 2]);
+			result[t] += summary[t];
 		}
+	}
 
-		char[] line = getLine(row);
-		boolean isQuoted = false;
-		for (int i = 0; i < col; i += 1) {
-			char c = line[i];
-			if ((c == '/') && ((i + 1) < line.length)) {
-				if (line[i + 1] == '/') {
-					return false;
-				}
-			}
-			if ((c == '"') || (c == '\'')) {
-				char quote = c;
-				isQuoted = true;
-				i += 1;
-				while (i < col) {
-					c = line[i];
-					if (c == quote) {
-						isQuoted = false;
-						break;
-					}
-					if (c == '\\') {
-						i += 1;
-					}
-					i += 1;
-				}
-			}
+	/*
+	 *	The depth is 1 at the beginning, which is the bracket to be matched,
+	 *	and the matching bracket is where the depth becomes 0.
+	 */
+	private static class BracketSearcher extends LineTree.Searcher {
+
+		int type;
+		boolean isForward;
+		int depth = 1;
+
+		BracketSearcher(int type, boolean isForward) {
+			this.type = type;
+			this.isForward = isForward;
 		}
-		return (! isQuoted);
+
+		boolean isFound(Object summary) {
+			int[] s = (int[]) summary;
+			return isForward ? ((depth + s[(type * 3) + 1]) <= 0)
+					: ((depth - s[(type * 3) + 2]) <= 0);
+		}
+
+		void skip(Object summary) {
+			int[] s = (int[]) summary;
+			depth += isForward ? s[type * 3] : -s[type * 3];
+		}
+
 	}
 
-	private byte[] highlightBracketedRange(int row, byte[] colorCodes) {
-		char[] line = getLine(row);
-		if (bracketedRange != null) {
-			for (int col = 0; col < line.length; col += 1) {
-				if ((bracketedRange.beginRow == row)
-						&& (bracketedRange.beginColumn == col)) {
-					colorCodes[col] = COLOR_BRACKET;
-				} else if ((bracketedRange.endRow == row)
-						&& (bracketedRange.endColumn == col)) {
-					colorCodes[col] = COLOR_BRACKET;
-				}
-			}
+	/* ---- Methods to determine the color codes --------------------------- */
+
+	void modified() {
+		super.modified();
+		matchBrackets();
+	}
+
+	/*
+	 *	The matched brackets are added in order.
+	 */
+	void decorateColorSpans(IntVector v, int row) {
+		Range r = bracketedRange;
+		if (r == null) {
+			return;
+		}
+		int col1 = (r.beginRow == row) ? r.beginColumn : -1;
+		int col2 = (r.endRow == row) ? r.endColumn : -1;
+		if ((col1 >= 0) && ((col2 < 0) || (col1 < col2))) {
+			ColorSpans.add(v, col1, col1 + 1, COLOR_BRACKET);
+		}
+		if (col2 >= 0) {
+			ColorSpans.add(v, col2, col2 + 1, COLOR_BRACKET);
+		}
+		if ((col1 >= 0) && (col2 >= 0) && (col1 > col2)) {
+			ColorSpans.add(v, col1, col1 + 1, COLOR_BRACKET);
 		}
-		return colorCodes;
 	}
 
-	private static void setColorCodes(
-			byte[] colorCodes, int begin, int end, byte colorCode) {
-		for (int col = begin; col < end; col += 1) {
-			colorCodes[col] = colorCode;
+	/*
+	 *	The tokens of a line are lexed once until the line is changed, and
+	 *	the cached spans are returned as they are.
+	 */
+	int[] computeColorSpans(int row) {
+		LineProperty lp = (LineProperty) lineDataTree.elementAt(row);
+		if ((lp != null) && (lp.tokenSpans != null)) {
+			return lp.tokenSpans;
 		}
+
+		IntVector v = new IntVector();
+		lexTokens(getLine(row), lp, v);
+		int[] spans = ColorSpans.toArray(v);
+		if (lp != null) { // or else the line is not lexed yet in a batch
+			lp.tokenSpans = spans;
+		}
+		return spans;
 	}
 
-	byte[] computeColorCodes(byte[] colorCodes, int row) {
-		char[] line = getLine(row);
-		colorCodes = highlightBracketedRange(row, colorCodes);
+	/*
+	 *	This method lexes a line of Java for another model, e.g. the fenced
+	 *	code in Markdown. The spans of the tokens are added to the vector, and
+	 *	the state at the end of the line is returned, which is passed to this
+	 *	method for the next line.
+	 */
+	static byte lexLine(char[] line, byte beginState, IntVector v) {
+		LineProperty lp = getLineProperty(line, beginState);
+		lexTokens(line, lp, v);
+		return lp.endState;
+	}
 
+	private static void lexTokens(char[] line, LineProperty lp, IntVector v) {
 		for (int col = 0; col < line.length; col += 1) {
 			char c = line[col];
 			if (isWhitespace(c)) {
 				continue;
 			}
 
-			if (isInsideCommentRanges(row, col)) {
-				colorCodes[col] = COLOR_COMMENT;
+			if (isInsideComment(lp, col)) {
+				ColorSpans.add(v, col, col + 1, COLOR_COMMENT);
 				continue;
 			}
 
 			if ((c == '/') && ((col + 1) < line.length)
 					&& (line[col + 1] == '/')) {
-				setColorCodes(colorCodes, col, line.length, COLOR_COMMENT);
+				ColorSpans.add(v, col, line.length, COLOR_COMMENT);
 				break;
-			} else if (Character.isJavaIdentifierStart(c)) {
+			} else if (isIdentifierStart(c)) {
 				int end = parseIdentifier(line, col);
-				String s = String.valueOf(line).substring(col, end);
-				if (isKeyword(s)) {
-					setColorCodes(colorCodes, col, end, COLOR_KEYWORD);
-				} else if (s.equals("true") || s.equals("false")
-						|| s.equals("null")) {
-					setColorCodes(colorCodes, col, end, COLOR_LITERAL);
+				byte color = getWordColor(line, col, end);
+				if (color != 0) {
+					ColorSpans.add(v, col, end, color);
 				}
 				col = end - 1;
 			} else if (isDigit(c) || ((c == '.')
 					&& ((col + 1) < line.length)
 					&& isDigit(line[col + 1]))) {
 				int end = parseNumber(line, col);
-				if (isNumeric(String.valueOf(line).substring(col, end))) {
-					setColorCodes(colorCodes, col, end, COLOR_LITERAL);
+				if (numberMatcher.matches(line, col, end)) {
+					ColorSpans.add(v, col, end, COLOR_LITERAL);
 				}
 				col = end - 1;
 			} else if ((c == '"') || (c == '\'')) {
 				int end = parseQuoted(line, col, c);
-				setColorCodes(colorCodes, col, end, COLOR_LITERAL);
+				ColorSpans.add(v, col, end, COLOR_LITERAL);
 				col = end - 1;
 			} else if (OPERATORS.indexOf(c) >= 0) {
-				colorCodes[col] = COLOR_OPERATOR;
+				ColorSpans.add(v, col, col + 1, COLOR_OPERATOR);
 			}
 		}
-
-		return colorCodes;
 	}
 
-	private int parseIdentifier(char[] chars, int pos) {
+	private static int parseIdentifier(char[] chars, int pos) {
 		int i = pos + 1;
 		while (i < chars.length) {
 			char c = chars[i];
-			if (! Character.isJavaIdentifierPart(c)) {
+			if (! isIdentifierPart(c)) {
 				break;
 			} else {
 				i += 1;
@@ -390,7 +653,7 @@ class JavaSourceModel extends PassiveModel {
 		return i;
 	}
 
-	private int parseQuoted(char[] chars, int pos, char terminalChar) {
+	private static int parseQuoted(char[] chars, int pos, char terminalChar) {
 		int i = pos + 1;
 		while (i < chars.length) {
 			char c = chars[i];
@@ -405,12 +668,12 @@ class JavaSourceModel extends PassiveModel {
 		return i;
 	}
 
-	private int parseNumber(char[] chars, int pos) {
+	private static int parseNumber(char[] chars, int pos) {
 		int i = pos + 1;
 		while (i < chars.length) {
 			char c = Character.toLowerCase(chars[i]);
 			if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
-					|| c == '.' || c == '+' || c == '-') {
+					|| c == '.' || c == '+' || c == '-' || c == '_') {
 				i += 1;
 				continue;
 			} else {
@@ -420,146 +683,59 @@ class JavaSourceModel extends PassiveModel {
 		return i;
 	}
 
-	private boolean isKeyword(String s) {
-		int len = s.length();
-		if ((len < 2) || (len == 11) || (len > 12)) {
-			return false;
-		}
-		for (int i = 0; i < keywords[len].length; i += 1) {
-			if (s.equals(keywords[len][i])) {
-				return true;
-			}
-		}
-		return false;
+	private static boolean isIdentifierStart(char c) {
+		return (c < 128)
+				? asciiIdentifierStarts[c] : Character.isJavaIdentifierStart(c);
 	}
 
-	private boolean isNumeric(String s) {
-		if (s == null || (s.length() == 0)) {
-			return false;
-		}
-
-		for (int i = 0; i < numberRuleVector.size(); i += 1) {
-			Rule rule = (Rule) numberRuleVector.elementAt(i);
-			if (rule.match(s, 0) == s.length()) {
-				return true;
-			}
-		}
-		return false;
+	private static boolean isIdentifierPart(char c) {
+		return (c < 128)
+				? asciiIdentifierParts[c] : Character.isJavaIdentifierPart(c);
 	}
 
-	/* ---- Classes similar to RegExp to check the number syntax ----------- */
-
-	private static class Rule {
-
-		private int min = 1;
-		private int max = 1;
-		private String target;
-		private Vector childRules; // of Rule
-
-		Rule(String s) {
-			this.target = s;
-		}
-
-		Rule(Vector rules) {
-			this.childRules = rules;
+	private static int hashWord(char[] chars, int begin, int end) {
+		int h = 0;
+		for (int i = begin; i < end; i += 1) {
+			h = (h * 31) + chars[i];
 		}
+		return (h ^ (h >>> 7)) & (WORD_TABLE_SIZE - 1);
+	}
 
-		void setRepetition(int min, int max) {
-			this.min = min;
-			this.max = max;
+	private static void addWord(String s, byte color) {
+		char[] chars = s.toCharArray();
+		int i = hashWord(chars, 0, chars.length);
+		while (wordTable[i] != null) {
+			i = (i + 1) & (WORD_TABLE_SIZE - 1);
 		}
-
-		int match(String s, int pos) {
-			if (pos < 0) {
-				return -1;
-			}
-
-			int count = 0;
-			if (childRules != null) {
-				loop: while (count < max) {
-					int p = pos;
-					for (int i = 0; i < childRules.size(); i += 1) {
-						p = ((Rule) childRules.elementAt(i)).match(s, p);
-						if (p < 0) {
-							break loop;
-						}
-					}
-					count += 1;
-					pos = p;
-				}
-			} else {
-				while ((pos < s.length()) && (count < max)) {
-					if (target.indexOf(s.charAt(pos)) == -1) {
-						break;
-					}
-					count += 1;
-					pos += 1;
-				}
-			}
-
-			if (count < min) {
-				return -1;
-			}
-			return pos;
-		}
-
+		wordTable[i] = chars;
+		wordColorTable[i] = color;
 	}
 
-	private Vector parseRule(String s) {
-		Vector rules = new Vector(); // of Rule
-
-		for (int i = 0; i < s.length(); i += 1) {
-			Rule rule;
-			char c = s.charAt(i);
+	/*
+	 *	This method returns the color of a keyword or a literal between
+	 *	`begin` and `end` of the chars, or 0 if it is not such a word.
+	 */
+	private static byte getWordColor(char[] chars, int begin, int end) {
+		int len = end - begin;
+		if ((len < 2) || (len > 12)) {
+			return 0;
+		}
 
-			if (c == '(') {
-				int p = i + 1;
-				while (s.charAt(p) != ')') {
-					p += 1;
-				}
-				rule = new Rule(parseRule(s.substring(i + 1, p)));
-				i = p;
-			} else if (c == '[') {
-				int p = i + 1;
-				StringBuffer sb = new StringBuffer();
-
-				while (true) {
-					if (s.charAt(p) == ']') {
-						break;
-					} else if (s.charAt(p) == '-') {
-						int a = s.charAt(p - 1);
-						int b = s.charAt(p + 1);
-						if ((a != '[') && (b != ']')) {
-							for (int n = a + 1; n < b; n += 1) {
-								sb.append((char) n);
-							}
-							p += 1; // where s.charAt(p) == (char) b
-						}
-					}
-					sb.append(s.charAt(p));
-					p += 1;
+		int i = hashWord(chars, begin, end);
+		while (wordTable[i] != null) {
+			char[] word = wordTable[i];
+			if (word.length == len) {
+				int k = 0;
+				while ((k < len) && (word[k] == chars[begin + k])) {
+					k += 1;
 				}
-
-				rule = new Rule(sb.toString());
-				i = p;
-			} else {
-				rule = new Rule(String.valueOf(c));
-			}
-
-			if ((i + 1) < s.length()) {
-				c = s.charAt(i + 1);
-				if (c == '+') {
-					rule.setRepetition(1, Integer.MAX_VALUE);
-					i += 1;
-				} else if (c == '?') {
-					rule.setRepetition(0, 1);
-					i += 1;
+				if (k == len) {
+					return wordColorTable[i];
 				}
 			}
-			rules.addElement(rule);
+			i = (i + 1) & (WORD_TABLE_SIZE - 1);
 		}
-
-		return rules;
+		return 0;
 	}
 
 }
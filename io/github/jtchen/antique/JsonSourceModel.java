@@ -0,0 +1,54 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This is an implementation of a model that supports syntax highlighting of
+ *	JSON. The comments of JSON with comments are also recognized.
+ */
+class JsonSourceModel extends LexerModel {
+
+	private static final byte COLOR_KEY = Theme.PRIMARY_BLOCK;
+	private static final byte COLOR_COMMENT = Theme.SECONDARY_BLOCK;
+	private static final byte COLOR_OPERATOR = Theme.PRIMARY_INLINE;
+	private static final byte COLOR_LITERAL = Theme.SECONDARY_INLINE;
+
+	private static final int STATE_NORMAL = 0;
+	private static final int STATE_COMMENT = 1;
+
+	private static final String STRING = "\"([^\"\\\\]|\\\\.)*\"";
+
+	/*
+	 *	A string followed by a colon is a key. A word other than the literals
+	 *	is matched as a whole, so that e.g. "nullable" is not colored.
+	 */
+	private static LexerGrammar grammar = new LexerGrammar(2);
+	static {
+		grammar.addRule(STATE_NORMAL, STRING + "[ \t]*:", COLOR_KEY);
+		grammar.addRule(STATE_NORMAL, STRING + "?", COLOR_LITERAL);
+		grammar.addRule(STATE_NORMAL,
+				"-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?",
+				COLOR_LITERAL);
+		grammar.addRule(STATE_NORMAL, "true|false|null", COLOR_LITERAL);
+		grammar.addRule(STATE_NORMAL, "[A-Za-z_$][A-Za-z0-9_$]*", (byte) 0);
+		grammar.addRule(STATE_NORMAL, "[{}\\[\\],:]", COLOR_OPERATOR);
+		grammar.addRule(STATE_NORMAL, "//.*", COLOR_COMMENT);
+		grammar.addRule(STATE_NORMAL, "/\\*", COLOR_COMMENT, STATE_COMMENT);
+
+		grammar.addRule(STATE_COMMENT, "[^*]+", COLOR_COMMENT);
+		grammar.addRule(STATE_COMMENT, "\\*/", COLOR_COMMENT, STATE_NORMAL);
+		grammar.setDefaultColor(STATE_COMMENT, COLOR_COMMENT);
+	}
+
+	JsonSourceModel() {
+		this(new LineArrayStore());
+	}
+
+	JsonSourceModel(LineStore lineStore) {
+		super(lineStore, grammar);
+	}
+
+}
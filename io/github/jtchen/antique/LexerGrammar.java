@@ -0,0 +1,103 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.util.*;
+
+/*
+ *	This class describes a language as a table of states and rules, which is
+ *	used by a LexerModel to lex the lines. Each state has its own rules, and
+ *	a rule is a pattern of PatternMatcher with a color code and the state to
+ *	go to after a token matching it.
+ *
+ *	In a state, the longest token at the current column is taken, and if it
+ *	matches several rules, the rule added first wins. A char which does not
+ *	begin any token has the default color of the state. At the end of a line,
+ *	the lexer goes to the line end state of the current state, which is the
+ *	state itself unless it is set, so a construct can span lines.
+ */
+class LexerGrammar {
+
+	private Vector[] rulePatterns; // of String, for each state
+	private AbstractModel.IntVector[] ruleColors;
+	private AbstractModel.IntVector[] ruleNextStates;
+	private byte[] defaultColors;
+	private int[] lineEndStates;
+
+	/*
+	 *	The rules of each state are compiled into one PatternMatcher when it
+	 *	is used the first time.
+	 */
+	private PatternMatcher[] matchers;
+
+	LexerGrammar(int stateCount) {
+		rulePatterns = new Vector[stateCount];
+		ruleColors = new AbstractModel.IntVector[stateCount];
+		ruleNextStates = new AbstractModel.IntVector[stateCount];
+		defaultColors = new byte[stateCount];
+		lineEndStates = new int[stateCount];
+		matchers = new PatternMatcher[stateCount];
+		for (int state = 0; state < stateCount; state += 1) {
+			rulePatterns[state] = new Vector();
+			ruleColors[state] = new AbstractModel.IntVector();
+			ruleNextStates[state] = new AbstractModel.IntVector();
+			lineEndStates[state] = state;
+		}
+	}
+
+	void addRule(int state, String pattern, byte color) {
+		addRule(state, pattern, color, state);
+	}
+
+	void addRule(int state, String pattern, byte color, int nextState) {
+		rulePatterns[state].addElement(pattern);
+		ruleColors[state].addElement(color);
+		ruleNextStates[state].addElement(nextState);
+		matchers[state] = null;
+	}
+
+	void setDefaultColor(int state, byte color) {
+		defaultColors[state] = color;
+	}
+
+	void setLineEndState(int state, int lineEndState) {
+		lineEndStates[state] = lineEndState;
+	}
+
+	/*
+	 *	This method lexes a line from the given state, adds the colors of its
+	 *	tokens to the vector in order, and returns the state at the beginning
+	 *	of the next line. A token never ends beyond the line.
+	 */
+	int lex(char[] line, int beginState, AbstractModel.IntVector spans) {
+		int state = beginState;
+		int col = 0;
+		while (col < line.length) {
+			PatternMatcher matcher = getMatcher(state);
+			int end = matcher.matchPrefix(line, col, line.length);
+			if (end <= col) { // an empty token is ignored
+				ColorSpans.add(spans, col, col + 1, defaultColors[state]);
+				col += 1;
+				continue;
+			}
+			int rule = matcher.getMatchedPattern(line, col, end);
+			ColorSpans.add(spans, col, end, ruleColors[state].elementAt(rule));
+			state = ruleNextStates[state].elementAt(rule);
+			col = end;
+		}
+		return lineEndStates[state];
+	}
+
+	private synchronized PatternMatcher getMatcher(int state) {
+		if (matchers[state] == null) {
+			String[] patterns = new String[rulePatterns[state].size()];
+			rulePatterns[state].copyInto(patterns);
+			matchers[state] = new PatternMatcher(patterns);
+		}
+		return matchers[state];
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This is an implementation of a model that supports syntax highlighting of
+ *	any language described by a LexerGrammar. A subclass only provides the
+ *	grammar of its language.
+ *
+ *	The state at the end of each line is kept in the lineDataTree, and the
+ *	states of the changed lines are null until they are lexed again.
+ */
+class LexerModel extends IncrementalModel {
+
+	private LexerGrammar grammar;
+
+	private int lexState; // at the end of the line above, see updateLine()
+	private IntVector tokenVector = new IntVector();
+
+	/*
+	 *	A LineState is replaced whenever its line or the state at the
+	 *	beginning of the line is changed, so the token spans in it are always
+	 *	up to date.
+	 */
+	private static class LineState {
+		int beginState;
+		int endState;
+		int[] tokenSpans; // see ColorSpans
+	}
+
+	LexerModel(LineStore lineStore, LexerGrammar grammar) {
+		super(lineStore, new LineTree()); // of LineState
+		this.grammar = grammar;
+		updateAllLines();
+	}
+
+	/* ---- Methods to lex lines incrementally ----------------------------- */
+
+	Object getChangedLineData(char[] line, int row) {
+		return null; // lexed in updateLine()
+	}
+
+	void beginUpdate(int row) {
+		lexState = getBeginState(row);
+	}
+
+	boolean updateLine(int row, boolean isDirty) {
+		LineState ls = (LineState) lineDataTree.elementAt(row);
+		if ((ls == null) || (ls.beginState != lexState)) {
+			ls = lexLine(row, lexState);
+			lineDataTree.setElementAt(ls, row);
+		} else if (! isDirty) {
+			return false;
+		}
+		lexState = ls.endState;
+		return true;
+	}
+
+	private LineState lexLine(int row, int beginState) {
+		LineState ls = new LineState();
+		ls.beginState = beginState;
+		tokenVector.removeAllElements();
+		ls.endState = grammar.lex(getLine(row), beginState, tokenVector);
+		ls.tokenSpans = ColorSpans.toArray(tokenVector);
+		return ls;
+	}
+
+	/*
+	 *	Within a batch, the previous line may not be lexed yet, and then the
+	 *	line is assumed to begin in the initial state.
+	 */
+	private int getBeginState(int row) {
+		if (row == 0) {
+			return 0;
+		}
+		LineState ls = (LineState) lineDataTree.elementAt(row - 1);
+		return (ls == null) ? 0 : ls.endState;
+	}
+
+	/* ---- Methods to determine the color codes --------------------------- */
+
+	/*
+	 *	The cached spans are returned as they are, unless the line has been
+	 *	changed in a batch and not lexed yet.
+	 */
+	int[] computeColorSpans(int row) {
+		LineState ls = (LineState) lineDataTree.elementAt(row);
+		if (ls == null) {
+			ls = lexLine(row, getBeginState(row));
+		}
+		return ls.tokenSpans;
+	}
+
+}
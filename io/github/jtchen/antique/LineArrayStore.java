@@ -0,0 +1,140 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This is the default line storage, in which each line is kept separately.
+ *	A line consisting of Latin-1 chars only is kept as a byte array, and the
+ *	other lines are kept as char arrays (see CompactText). Since the model
+ *	still reads lines as char arrays, the recently decoded lines are kept in a
+ *	small cache, which follows the lines when some lines are inserted or
+ *	removed before them.
+ */
+class LineArrayStore extends LineStore {
+
+	private static final int CACHE_SIZE = 64;
+
+	/*
+	 *	The weight of each line is its length plus one for the line feed, so
+	 *	that the offset of a line is the sum of the weights before it.
+	 */
+	private LineTree lineTree = new LineTree(); // of byte[] or char[]
+
+	private char[][] cachedLines = new char[CACHE_SIZE][];
+	private int[] cachedRows = new int[CACHE_SIZE];
+	private char[][] movedLines = new char[CACHE_SIZE][]; // see shiftCache()
+	private int[] movedRows = new int[CACHE_SIZE];
+
+	LineArrayStore() {
+		lineTree.insertElementAt(new byte[0], 0, 1);
+		clearCache();
+	}
+
+	private LineArrayStore(LineTree lineTree) {
+		this.lineTree = lineTree;
+		clearCache();
+	}
+
+	int size() {
+		return lineTree.size();
+	}
+
+	int getLength() {
+		return lineTree.getWeightSum(lineTree.size()) - 1;
+	}
+
+	int getLineOffset(int row) {
+		return lineTree.getWeightSum(row);
+	}
+
+	int getRow(int offset) {
+		return lineTree.indexOfWeightSum(offset);
+	}
+
+	char[] getLine(int row) {
+		int slot = row % CACHE_SIZE;
+		if (cachedRows[slot] == row) {
+			return cachedLines[slot];
+		}
+
+		char[] line = CompactText.decode(lineTree.elementAt(row));
+		cachedRows[slot] = row;
+		cachedLines[slot] = line;
+		return line;
+	}
+
+	void setLine(char[] line, int row) {
+		lineTree.setElementAt(CompactText.encode(line), row, line.length + 1);
+
+		int slot = row % CACHE_SIZE;
+		cachedRows[slot] = row;
+		cachedLines[slot] = line;
+	}
+
+	void insertLine(char[] line, int row) {
+		lineTree.insertElementAt(CompactText.encode(line), row, line.length + 1);
+		shiftCache(row, row - 1, 1);
+
+		int slot = row % CACHE_SIZE;
+		cachedRows[slot] = row;
+		cachedLines[slot] = line;
+	}
+
+	void removeLine(int row) {
+		lineTree.removeElementAt(row);
+		shiftCache(row, row, -1);
+	}
+
+	void removeLines(int beginRow, int endRow) {
+		lineTree.removeElements(beginRow, endRow);
+		shiftCache(beginRow, endRow, beginRow - endRow - 1);
+	}
+
+	/*
+	 *	The lines themselves are never changed, so only the tree is copied.
+	 */
+	LineStore snapshot() {
+		return new LineArrayStore(lineTree.snapshot());
+	}
+
+	/*
+	 *	This method drops the cached lines between `beginRow` and `endRow`
+	 *	(both inclusive), and moves the cached lines after them by `delta`
+	 *	rows, so that the visible lines are not decoded again after a line
+	 *	is inserted or removed.
+	 */
+	private void shiftCache(int beginRow, int endRow, int delta) {
+		int count = 0;
+		for (int i = 0; i < CACHE_SIZE; i += 1) {
+			int row = cachedRows[i];
+			if (row >= beginRow) {
+				if (row > endRow) {
+					movedRows[count] = row + delta;
+					movedLines[count] = cachedLines[i];
+					count += 1;
+				}
+				cachedRows[i] = -1;
+				cachedLines[i] = null;
+			}
+		}
+
+		// all moved by the same delta, so the moved lines get different slots
+		for (int i = 0; i < count; i += 1) {
+			int slot = movedRows[i] % CACHE_SIZE;
+			cachedRows[slot] = movedRows[i];
+			cachedLines[slot] = movedLines[i];
+			movedLines[i] = null;
+		}
+	}
+
+	private void clearCache() {
+		for (int i = 0; i < CACHE_SIZE; i += 1) {
+			cachedRows[i] = -1;
+			cachedLines[i] = null;
+		}
+	}
+
+}
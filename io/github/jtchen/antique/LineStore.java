@@ -0,0 +1,53 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This class defines how the lines of a document are stored. A document
+ *	always has at least one line, and a line never contains the line feed.
+ *
+ *	Please note that the char arrays passed to or returned by these methods
+ *	are shared with the model, so they must not be modified afterwards.
+ */
+abstract class LineStore {
+
+	abstract int size();
+
+	/*
+	 *	This method returns the count of chars including the line feeds.
+	 */
+	abstract int getLength();
+
+	/*
+	 *	This method returns the offset of the first char of a line.
+	 */
+	abstract int getLineOffset(int row);
+
+	/*
+	 *	This method returns the row of the line containing the given offset.
+	 *	The offset of a line feed belongs to the line before it.
+	 */
+	abstract int getRow(int offset);
+
+	abstract char[] getLine(int row);
+	abstract void setLine(char[] line, int row);
+	abstract void insertLine(char[] line, int row);
+	abstract void removeLine(int row);
+
+	/*
+	 *	This method removes the lines between `beginRow` and `endRow` (both
+	 *	inclusive) at once.
+	 */
+	abstract void removeLines(int beginRow, int endRow);
+
+	/*
+	 *	This method returns a read-only copy of the current lines, which can be
+	 *	read by another thread while this store is still being changed. It
+	 *	should not cost more than O(1), so the structure has to be shared.
+	 */
+	abstract LineStore snapshot();
+
+}
@@ -0,0 +1,690 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This class is a replacement for the Vector to hold one element per line of
+ *	a document. The elements are kept in small chunks, which are the leaves of
+ *	a balanced tree, and every node knows the count of elements in its subtree.
+ *	Therefore, accessing, inserting and removing an element cost O(log n), and
+ *	removing a range of elements does not shift the rest of the document.
+ *
+ *	In addition, each element can have an integer weight (e.g. the length of
+ *	a line), and every node also knows the sum of the weights of its subtree,
+ *	so that the prefix sums can be found in O(log n) as well.
+ *
+ *	The method names are the same as those of the Vector, so that this class
+ *	can be used by the models in the same way.
+ *
+ *	Besides, a Summarizer can be given to keep a summary of the elements of
+ *	every subtree, so that an element can be searched by a property of the
+ *	elements before or after it in O(log n) (see search()).
+ *
+ *	A snapshot of the tree can be taken in O(1) (see snapshot()). The nodes are
+ *	then shared, and a node is copied before it is changed if it does not
+ *	belong to the tree changing it (copy-on-write).
+ */
+class LineTree {
+
+	private static final int MAX_COUNT = 64; // elements or children per node
+	private static final int MIN_COUNT = MAX_COUNT / 4;
+
+	private Object owner = new Object(); // the owner of the unshared nodes
+	private Node root = new Node(true, owner);
+
+	private Summarizer summarizer = null;
+	private Object[] summaryBuffer = null;
+
+	/*
+	 *	A summarizer describes how the elements are summarized. A summary
+	 *	should be immutable, since it may be shared by the snapshots.
+	 */
+	static abstract class Summarizer {
+
+		abstract Object getSummary(Object element);
+
+		/*
+		 *	This method returns the summary of the consecutive elements
+		 *	described by the given summaries, and `count` may be 0.
+		 */
+		abstract Object combine(Object[] summaries, int count);
+
+	}
+
+	/*
+	 *	A searcher is given the summaries of the elements in the order of a
+	 *	search, and it usually keeps the state of the search.
+	 */
+	static abstract class Searcher {
+
+		/*
+		 *	This method returns true if the wanted element is one of the
+		 *	elements described by the given summary.
+		 */
+		abstract boolean isFound(Object summary);
+
+		/*
+		 *	This method is called for the summary of the elements which are
+		 *	passed over.
+		 */
+		abstract void skip(Object summary);
+
+	}
+
+	private static class Node {
+		Object owner;
+		int size = 0; // the count of elements in the subtree
+		int weight = 0; // the sum of the weights in the subtree
+		int count = 0; // the count of elements or children in this node
+		Object summary = null; // of the subtree, if there is a summarizer
+		Object[] elements;
+		int[] weights;
+		Node[] children;
+
+		Node(boolean isLeaf, Object owner) {
+			this.owner = owner;
+			if (isLeaf) {
+				elements = new Object[MAX_COUNT];
+				weights = new int[MAX_COUNT];
+			} else {
+				children = new Node[MAX_COUNT];
+			}
+		}
+
+		boolean isLeaf() {
+			return (elements != null);
+		}
+
+		Node copy(Object owner) {
+			Node node = new Node(isLeaf(), owner);
+			node.summary = summary;
+			node.size = size;
+			node.weight = weight;
+			node.count = count;
+			if (isLeaf()) {
+				System.arraycopy(elements, 0, node.elements, 0, count);
+				System.arraycopy(weights, 0, node.weights, 0, count);
+			} else {
+				System.arraycopy(children, 0, node.children, 0, count);
+			}
+			return node;
+		}
+	}
+
+	LineTree() {}
+
+	LineTree(Summarizer summarizer) {
+		this.summarizer = summarizer;
+	}
+
+	/*
+	 *	This method returns a tree with the same elements in O(1). Afterwards,
+	 *	the nodes on the path of every change are copied once, so neither tree
+	 *	sees the changes of the other one.
+	 */
+	LineTree snapshot() {
+		LineTree tree = new LineTree(summarizer);
+		tree.root = root;
+		owner = new Object(); // all the current nodes are shared now
+		return tree;
+	}
+
+	int size() {
+		return root.size;
+	}
+
+	Object elementAt(int index) {
+		checkIndex(index, size() - 1);
+		Node node = root;
+		while (! node.isLeaf()) {
+			int i = 0;
+			while (index >= node.children[i].size) {
+				index -= node.children[i].size;
+				i += 1;
+			}
+			node = node.children[i];
+		}
+		return node.elements[index];
+	}
+
+	int weightAt(int index) {
+		checkIndex(index, size() - 1);
+		Node node = root;
+		while (! node.isLeaf()) {
+			int i = 0;
+			while (index >= node.children[i].size) {
+				index -= node.children[i].size;
+				i += 1;
+			}
+			node = node.children[i];
+		}
+		return node.weights[index];
+	}
+
+	void setElementAt(Object obj, int index) {
+		setElementAt(obj, index, weightAt(index));
+	}
+
+	void setElementAt(Object obj, int index, int weight) {
+		int delta = weight - weightAt(index);
+		int leafIndex = index;
+		Node node = getEditableRoot();
+		while (! node.isLeaf()) {
+			node.weight += delta;
+			int i = 0;
+			while (leafIndex >= node.children[i].size) {
+				leafIndex -= node.children[i].size;
+				i += 1;
+			}
+			node = getEditableChild(node, i);
+		}
+		node.weight += delta;
+		node.elements[leafIndex] = obj;
+		node.weights[leafIndex] = weight;
+		if (summarizer != null) {
+			summarizePath(root, index);
+		}
+	}
+
+	void addElement(Object obj) {
+		insertElementAt(obj, size(), 0);
+	}
+
+	void insertElementAt(Object obj, int index) {
+		insertElementAt(obj, index, 0);
+	}
+
+	void insertElementAt(Object obj, int index, int weight) {
+		checkIndex(index, size());
+		Node sibling = insert(getEditableRoot(), obj, weight, index);
+		if (sibling != null) { // the root was split
+			Node newRoot = new Node(false, owner);
+			newRoot.children[0] = root;
+			newRoot.children[1] = sibling;
+			newRoot.count = 2;
+			updateSize(newRoot);
+			root = newRoot;
+		}
+	}
+
+	/*
+	 *	This method inserts the elements one by one, and each of them costs
+	 *	O(log n) regardless of the position.
+	 */
+	void insertElementsAt(Object[] objs, int index) {
+		for (int i = 0; i < objs.length; i += 1) {
+			insertElementAt(objs[i], index + i);
+		}
+	}
+
+	void removeElementAt(int index) {
+		removeElements(index, index);
+	}
+
+	/*
+	 *	This method removes the elements between the indexes `begin` and `end`
+	 *	(both inclusive). The whole subtrees inside the range are dropped at
+	 *	once, so the cost is not proportional to the count of elements.
+	 */
+	void removeElements(int begin, int end) {
+		checkIndex(begin, size() - 1);
+		checkIndex(end, size() - 1);
+		if (end < begin) {
+			return;
+		}
+		remove(getEditableRoot(), begin, end + 1);
+		while ((! root.isLeaf()) && (root.count == 1)) {
+			root = root.children[0];
+		}
+		if ((! root.isLeaf()) && (root.count == 0)) {
+			root = new Node(true, owner);
+		}
+	}
+
+	void removeAllElements() {
+		root = new Node(true, owner);
+	}
+
+	/*
+	 *	This method returns the sum of the weights of the elements before the
+	 *	given index, and getWeightSum(size()) is the sum of all the weights.
+	 */
+	int getWeightSum(int index) {
+		checkIndex(index, size());
+		int sum = 0;
+		Node node = root;
+		while (! node.isLeaf()) {
+			int i = 0;
+			while ((i < (node.count - 1)) && (index >= node.children[i].size)) {
+				index -= node.children[i].size;
+				sum += node.children[i].weight;
+				i += 1;
+			}
+			node = node.children[i];
+		}
+		for (int i = 0; i < index; i += 1) {
+			sum += node.weights[i];
+		}
+		return sum;
+	}
+
+	/*
+	 *	This method returns the last index at which the sum of the weights of
+	 *	the preceding elements does not exceed the given sum. If all the weights
+	 *	are positive, this is the element "containing" the given sum.
+	 */
+	int indexOfWeightSum(int sum) {
+		int index = 0;
+		Node node = root;
+		while (! node.isLeaf()) {
+			int i = 0;
+			while ((i < (node.count - 1)) && (sum >= node.children[i].weight)) {
+				sum -= node.children[i].weight;
+				index += node.children[i].size;
+				i += 1;
+			}
+			node = node.children[i];
+		}
+		int i = 0;
+		while ((i < (node.count - 1)) && (sum >= node.weights[i])) {
+			sum -= node.weights[i];
+			i += 1;
+		}
+		return index + i;
+	}
+
+	/*
+	 *	This method summarizes all the nodes once with the given summarizer,
+	 *	which is faster than summarizing them after every insertion when a
+	 *	tree is filled before it is summarized.
+	 */
+	void setSummarizer(Summarizer summarizer) {
+		this.summarizer = summarizer;
+		summarizeAll(getEditableRoot());
+	}
+
+	/*
+	 *	This method returns the summary of all the elements. The tree must
+	 *	have a summarizer.
+	 */
+	Object getSummary() {
+		return root.summary;
+	}
+
+	/*
+	 *	This method returns the first index not less than the given index
+	 *	at which the searcher finds the wanted element, or -1 if not found.
+	 *	The tree must have a summarizer.
+	 */
+	int search(int index, Searcher searcher) {
+		return search(root, index, searcher);
+	}
+
+	/*
+	 *	This method searches backward from the given index.
+	 */
+	int searchBackward(int index, Searcher searcher) {
+		return searchBackward(root, index, searcher);
+	}
+
+	private int search(Node node, int from, Searcher searcher) {
+		if (node.isLeaf()) {
+			for (int i = Math.max(from, 0); i < node.count; i += 1) {
+				Object summary = summarizer.getSummary(node.elements[i]);
+				if (searcher.isFound(summary)) {
+					return i;
+				}
+				searcher.skip(summary);
+			}
+			return -1;
+		}
+
+		int offset = 0;
+		for (int i = 0; i < node.count; i += 1) {
+			Node child = node.children[i];
+			if (from < (offset + child.size)) {
+				if ((from <= offset) && (! searcher.isFound(child.summary))) {
+					searcher.skip(child.summary); // the whole subtree
+				} else {
+					int found = search(child, from - offset, searcher);
+					if (found >= 0) {
+						return offset + found;
+					}
+				}
+			}
+			offset += child.size;
+		}
+		return -1;
+	}
+
+	private int searchBackward(Node node, int to, Searcher searcher) {
+		if (node.isLeaf()) {
+			for (int i = Math.min(to, node.count - 1); i >= 0; i -= 1) {
+				Object summary = summarizer.getSummary(node.elements[i]);
+				if (searcher.isFound(summary)) {
+					return i;
+				}
+				searcher.skip(summary);
+			}
+			return -1;
+		}
+
+		int offset = node.size;
+		for (int i = node.count - 1; i >= 0; i -= 1) {
+			Node child = node.children[i];
+			offset -= child.size;
+			if (to >= offset) {
+				if ((to >= (offset + child.size - 1))
+						&& (! searcher.isFound(child.summary))) {
+					searcher.skip(child.summary); // the whole subtree
+				} else {
+					int found = searchBackward(child, to - offset, searcher);
+					if (found >= 0) {
+						return offset + found;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static void checkIndex(int index, int max) {
+		if ((index < 0) || (index > max)) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+	}
+
+	/* ---- Methods to maintain the tree ----------------------------------- */
+
+	private Node getEditableRoot() {
+		if (root.owner != owner) {
+			root = root.copy(owner);
+		}
+		return root;
+	}
+
+	/*
+	 *	The given node must be editable already.
+	 */
+	private Node getEditableChild(Node node, int i) {
+		Node child = node.children[i];
+		if (child.owner != owner) {
+			child = child.copy(owner);
+			node.children[i] = child;
+		}
+		return child;
+	}
+
+	/*
+	 *	If the node is split, this method returns the new right sibling.
+	 */
+	private Node insert(Node node, Object obj, int weight, int index) {
+		node.size += 1;
+		node.weight += weight;
+		if (node.isLeaf()) {
+			if (node.count < MAX_COUNT) {
+				System.arraycopy(node.elements, index,
+						node.elements, index + 1, node.count - index);
+				System.arraycopy(node.weights, index,
+						node.weights, index + 1, node.count - index);
+				node.elements[index] = obj;
+				node.weights[index] = weight;
+				node.count += 1;
+				summarize(node);
+				return null;
+			}
+
+			Node sibling = splitLeaf(node);
+			if (index <= node.count) {
+				insert(node, obj, weight, index);
+			} else {
+				insert(sibling, obj, weight, index - node.count);
+			}
+			updateSize(node);
+			updateSize(sibling);
+			return sibling;
+		}
+
+		int i = 0;
+		while ((i < (node.count - 1)) && (index > node.children[i].size)) {
+			index -= node.children[i].size;
+			i += 1;
+		}
+		Node newChild = insert(getEditableChild(node, i), obj, weight, index);
+		if (newChild == null) {
+			summarize(node);
+			return null;
+		}
+
+		insertChild(node, newChild, i + 1);
+		if (node.count < MAX_COUNT) {
+			summarize(node);
+			return null;
+		}
+		return splitInternal(node);
+	}
+
+	private Node splitLeaf(Node node) {
+		int half = node.count / 2;
+		Node sibling = new Node(true, owner);
+		sibling.count = node.count - half;
+		System.arraycopy(node.elements, half,
+				sibling.elements, 0, sibling.count);
+		System.arraycopy(node.weights, half,
+				sibling.weights, 0, sibling.count);
+		for (int i = half; i < node.count; i += 1) {
+			node.elements[i] = null;
+			node.weights[i] = 0;
+		}
+		node.count = half;
+		return sibling;
+	}
+
+	private Node splitInternal(Node node) {
+		int half = node.count / 2;
+		Node sibling = new Node(false, owner);
+		sibling.count = node.count - half;
+		System.arraycopy(node.children, half,
+				sibling.children, 0, sibling.count);
+		for (int i = half; i < node.count; i += 1) {
+			node.children[i] = null;
+		}
+		node.count = half;
+		updateSize(node);
+		updateSize(sibling);
+		return sibling;
+	}
+
+	private static void insertChild(Node node, Node child, int i) {
+		System.arraycopy(node.children, i,
+				node.children, i + 1, node.count - i);
+		node.children[i] = child;
+		node.count += 1;
+	}
+
+	private static void removeChild(Node node, int i) {
+		System.arraycopy(node.children, i + 1,
+				node.children, i, node.count - i - 1);
+		node.count -= 1;
+		node.children[node.count] = null;
+	}
+
+	private void updateSize(Node node) {
+		int size = 0;
+		int weight = 0;
+		if (node.isLeaf()) {
+			size = node.count;
+			for (int i = 0; i < node.count; i += 1) {
+				weight += node.weights[i];
+			}
+		} else {
+			for (int i = 0; i < node.count; i += 1) {
+				size += node.children[i].size;
+				weight += node.children[i].weight;
+			}
+		}
+		node.size = size;
+		node.weight = weight;
+		summarize(node);
+	}
+
+	private void summarize(Node node) {
+		if (summarizer == null) {
+			return;
+		}
+		if (summaryBuffer == null) {
+			summaryBuffer = new Object[MAX_COUNT];
+		}
+		for (int i = 0; i < node.count; i += 1) {
+			summaryBuffer[i] = node.isLeaf()
+					? summarizer.getSummary(node.elements[i])
+					: node.children[i].summary;
+		}
+		node.summary = summarizer.combine(summaryBuffer, node.count);
+	}
+
+	private void summarizeAll(Node node) {
+		if (! node.isLeaf()) {
+			for (int i = 0; i < node.count; i += 1) {
+				summarizeAll(getEditableChild(node, i));
+			}
+		}
+		summarize(node);
+	}
+
+	/*
+	 *	This method summarizes the nodes on the path to the given index again
+	 *	from the bottom. The nodes must be editable already.
+	 */
+	private void summarizePath(Node node, int index) {
+		if (! node.isLeaf()) {
+			int i = 0;
+			while (index >= node.children[i].size) {
+				index -= node.children[i].size;
+				i += 1;
+			}
+			summarizePath(node.children[i], index);
+		}
+		summarize(node);
+	}
+
+	/*
+	 *	This method removes the elements in [begin, end) of the subtree.
+	 */
+	private void remove(Node node, int begin, int end) {
+		if (node.isLeaf()) {
+			System.arraycopy(node.elements, end,
+					node.elements, begin, node.count - end);
+			System.arraycopy(node.weights, end,
+					node.weights, begin, node.count - end);
+			for (int i = (node.count - (end - begin)); i < node.count; i += 1) {
+				node.elements[i] = null;
+				node.weights[i] = 0;
+			}
+			node.count -= (end - begin);
+			updateSize(node);
+			return;
+		}
+
+		int offset = 0;
+		int i = 0;
+		while ((i < node.count) && (offset < end)) {
+			Node child = node.children[i];
+			int childBegin = Math.max(begin - offset, 0);
+			int childEnd = Math.min(end - offset, child.size);
+			offset += child.size;
+			if ((childBegin == 0) && (childEnd == child.size)) {
+				removeChild(node, i); // the whole subtree is dropped
+			} else {
+				if (childBegin < childEnd) {
+					remove(getEditableChild(node, i), childBegin, childEnd);
+				}
+				i += 1;
+			}
+		}
+		rebalance(node);
+		updateSize(node);
+	}
+
+	/*
+	 *	This method merges or redistributes the underfull children of a node.
+	 *	All the children have the same height, so they can be combined.
+	 */
+	private void rebalance(Node node) {
+		int i = 0;
+		while ((i < node.count) && (node.count > 1)) {
+			Node child = node.children[i];
+			if (child.count >= MIN_COUNT) {
+				i += 1;
+				continue;
+			}
+
+			int j = (i < (node.count - 1)) ? (i + 1) : (i - 1);
+			Node left = getEditableChild(node, Math.min(i, j));
+			Node right = getEditableChild(node, Math.max(i, j));
+			int total = left.count + right.count;
+			if (left.isLeaf()) {
+				Object[] all = new Object[total];
+				System.arraycopy(left.elements, 0, all, 0, left.count);
+				System.arraycopy(right.elements, 0,
+						all, left.count, right.count);
+				int[] allWeights = new int[total];
+				System.arraycopy(left.weights, 0, allWeights, 0, left.count);
+				System.arraycopy(right.weights, 0,
+						allWeights, left.count, right.count);
+				fillLeaves(left, right, all, allWeights);
+			} else {
+				Node[] all = new Node[total];
+				System.arraycopy(left.children, 0, all, 0, left.count);
+				System.arraycopy(right.children, 0,
+						all, left.count, right.count);
+				fillInternals(left, right, all);
+			}
+
+			if (right.count == 0) { // merged into the left one
+				removeChild(node, Math.max(i, j));
+				i = Math.min(i, j);
+			} else {
+				i = Math.max(i, j) + 1;
+			}
+		}
+	}
+
+	private void fillLeaves(Node left, Node right,
+			Object[] all, int[] allWeights) {
+		int leftCount = (all.length <= MAX_COUNT) ? all.length : all.length / 2;
+		for (int k = 0; k < MAX_COUNT; k += 1) {
+			left.elements[k] = (k < leftCount) ? all[k] : null;
+			left.weights[k] = (k < leftCount) ? allWeights[k] : 0;
+			int r = leftCount + k;
+			right.elements[k] = (r < all.length) ? all[r] : null;
+			right.weights[k] = (r < all.length) ? allWeights[r] : 0;
+		}
+		left.count = leftCount;
+		right.count = all.length - leftCount;
+		updateSize(left);
+		updateSize(right);
+	}
+
+	/*
+	 *	An internal node is split as soon as it has MAX_COUNT children (see
+	 *	insert()), so the children are merged into one node only if they are
+	 *	fewer than that.
+	 */
+	private void fillInternals(Node left, Node right, Node[] all) {
+		int leftCount = (all.length < MAX_COUNT) ? all.length : all.length / 2;
+		for (int k = 0; k < MAX_COUNT; k += 1) {
+			left.children[k] = (k < leftCount) ? all[k] : null;
+			int r = leftCount + k;
+			right.children[k] = (r < all.length) ? all[r] : null;
+		}
+		left.count = leftCount;
+		right.count = all.length - leftCount;
+		updateSize(left);
+		updateSize(right);
+	}
+
+}
@@ -5,13 +5,11 @@
 
 package io.github.jtchen.antique;
 
-import java.util.*;
-
 /*
  *	This is an implementation of a model that supports syntax highlighting of
  *	the Markdown markup language.
  */
-class MarkdownSourceModel extends PassiveModel {
+class MarkdownSourceModel extends IncrementalModel {
 
 	/*
 	 *	These are constants of an internal structure, which are used to store
@@ -37,7 +35,7 @@ class MarkdownSourceModel extends PassiveModel {
 
 	private static final byte CONTINUOUS_EQUALS_SIGN = 1;
 	private static final byte CONTINUOUS_MINUS_SIGN = 2;
-	private static final byte HAS_SETEXT_HEADING = 3;
+	private static final byte HAS_SETEXT_HEADING = 3; // known by the next line
 	private static final byte HAS_ATX_HEADING = 4;
 	private static final byte HAS_THEMATIC_BREAK = 5;
 	private static final byte CONTINUOUS_BACKTICK = 6;
@@ -61,6 +59,16 @@ class MarkdownSourceModel extends PassiveModel {
 	private static final byte LINK = 18;
 	private static final byte IMAGE = 19;
 
+	/*
+	 *	These are the modes of the pass in modified(), which tell how the
+	 *	next line is continued.
+	 */
+
+	private static final byte NORMAL_MODE = 0;
+	private static final byte FENCED_CODE_MODE = 1;
+	private static final byte HTML_BLOCK_MODE = 2;
+	private static final byte REFERENCE_MODE = 3; // a title may follow
+
 	private static final byte COLOR_BLOCK = Theme.IMPORTANT;
 	private static final byte COLOR_HEADING = Theme.PRIMARY_BLOCK;
 	private static final byte COLOR_HTML_BLOCK = Theme.PRIMARY_BLOCK;
@@ -80,15 +88,76 @@ class MarkdownSourceModel extends PassiveModel {
 		byte runningStyle = DEFAULT;
 		int codeIndent = -1;
 		boolean hasText = false;
+		boolean isTitle = false; // the title of a reference above
+		boolean isSetextUnderline = false; // of the line above
+		boolean isJavaFence = false; // a fence with the info string "java"
 		IntVector blocks = new IntVector();
 		IntVector inlines = null;
+		int[] javaSpans = null; // of the fenced Java code, see ColorSpans
+		int[] beginState = null; // see BlockState
 	}
 
-	private Vector lineDataVector = new Vector(); // of LineData
+	private BlockState blockState = null; // of the pass, see updateLine()
+	private LineData upLineData = null; // the line above in the pass
+
+	private IntVector javaSpanVector = new IntVector();
+
+	/*
+	 *	This is the state of the pass in modified() at the beginning of a
+	 *	line. It is kept for each line as an int array, so that the pass can
+	 *	stop at a line which begins in the same state as before.
+	 */
+	private static class BlockState {
+		byte mode = NORMAL_MODE;
+		int codeIndent = -1;
+		byte fenceStyle = DEFAULT; // of the opening fence
+		int fenceIndent = 0;
+		byte upFixedStyle = -1; // of the line above, -1 for none
+		boolean isUpBlank = true;
+		byte javaState = -1; // of the JavaSourceModel lexer, -1 for no Java
+		IntVector openVector = new IntVector();
+
+		int[] save() {
+			int[] state = new int[7 + openVector.size()];
+			state[0] = mode;
+			state[1] = codeIndent;
+			state[2] = fenceStyle;
+			state[3] = fenceIndent;
+			state[4] = upFixedStyle;
+			state[5] = isUpBlank ? 1 : 0;
+			state[6] = javaState;
+			for (int i = 0; i < openVector.size(); i += 1) {
+				state[7 + i] = openVector.elementAt(i);
+			}
+			return state;
+		}
+
+		void restore(int[] state) {
+			mode = (byte) state[0];
+			codeIndent = state[1];
+			fenceStyle = (byte) state[2];
+			fenceIndent = state[3];
+			upFixedStyle = (byte) state[4];
+			isUpBlank = (state[5] != 0);
+			javaState = (byte) state[6];
+			openVector.removeAllElements();
+			for (int i = 7; i < state.length; i += 1) {
+				openVector.addElement(state[i]);
+			}
+		}
+	}
 
 	MarkdownSourceModel() {
-		super();
-		lineDataVector.insertElementAt(getLineData(new char[0], 0), 0);
+		this(new LineArrayStore());
+	}
+
+	/*
+	 *	The lineDataTree holds a LineData for each line, and the weight of a
+	 *	line is 1 if it is a heading (see getOutlineRows()), or 0 otherwise.
+	 */
+	MarkdownSourceModel(LineStore lineStore) {
+		super(lineStore, new LineTree());
+		updateAllLines();
 	}
 
 	/* ---- Supporting methods for the core method `getLineData()` --------- */
@@ -284,6 +353,19 @@ class MarkdownSourceModel extends PassiveModel {
 		return false;
 	}
 
+	/*
+	 *	The info string of a fence is only checked for the word "java".
+	 */
+	private static boolean hasJavaInfo(char[] line, int begin) {
+		int pos = findNonWhitespace(line, begin);
+		if ((pos < 0) || ((pos + 4) > line.length)) {
+			return false;
+		}
+		String info = new String(line, pos, 4);
+		return info.equalsIgnoreCase("java") && (((pos + 4) == line.length)
+				|| PassiveModel.isWhitespace(line[pos + 4]));
+	}
+
 	private static boolean hasTitle(char[] line, int begin) {
 		boolean isQuoteCompleted = false;
 		int pos = begin;
@@ -369,9 +451,11 @@ class MarkdownSourceModel extends PassiveModel {
 					break;
 				}
 			} else if ((c == '`') || (c == '~')) {
-				if (countChars(line, beginCol, c) >= 3) {
+				int count = countChars(line, beginCol, c);
+				if (count >= 3) {
 					ld.fixedStyle = (c == '`')
 							? CONTINUOUS_BACKTICK : CONTINUOUS_TILDE;
+					ld.isJavaFence = hasJavaInfo(line, beginCol + count);
 					break;
 				}
 			} else if (c == '#') {
@@ -447,6 +531,7 @@ class MarkdownSourceModel extends PassiveModel {
 		}
 		ld.indent = indent;
 		ld.beginCol = beginCol;
+		ld.isTitle = hasTitle(line, 0);
 
 		if ((ld.fixedStyle != HAS_THEMATIC_BREAK)
 				&& (ld.fixedStyle != CONTINUOUS_MINUS_SIGN)
@@ -457,21 +542,28 @@ class MarkdownSourceModel extends PassiveModel {
 		return ld;
 	}
 
-	/* ---- Override the basic operations of PassiveModel ------------------ */
+	/* ---- Override the methods of IncrementalModel ----------------------- */
 
-	void setLine(char[] line, int row) {
-		super.setLine(line, row);
-		lineDataVector.setElementAt(getLineData(line, row), row);
+	Object getChangedLineData(char[] line, int row) {
+		return getLineData(line, row);
 	}
 
+	/*
+	 *	The line data depend on whether the line is the first one, so the
+	 *	line which is no longer or becomes the first line is parsed again.
+	 */
 	void insertLine(char[] line, int row) {
 		super.insertLine(line, row);
-		lineDataVector.insertElementAt(getLineData(line, row), row);
+		if ((row == 0) && (getLineCount() > 1)) {
+			lineEdited(1);
+		}
 	}
 
-	void removeLine(int row) {
-		super.removeLine(row);
-		lineDataVector.removeElementAt(row);
+	void linesRemoved(int beginRow, int endRow) {
+		super.linesRemoved(beginRow, endRow);
+		if ((beginRow == 0) && (getLineCount() > 0)) {
+			lineEdited(0);
+		}
 	}
 
 	/* ---- Supporting methods for the core method `modified()` ------------ */
@@ -489,13 +581,29 @@ class MarkdownSourceModel extends PassiveModel {
 		return ((indent <= 0) && (! ld.hasText));
 	}
 
+	private static boolean isBlankLine(LineData ld) {
+		return ((ld.blocks.size() == 0) && (! ld.hasText));
+	}
+
+	private static boolean isEqual(int[] a, int[] b) {
+		if ((a == null) || (b == null) || (a.length != b.length)) {
+			return false;
+		}
+		for (int i = 0; i < a.length; i += 1) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/*
 	 *	The parsing information of each line is incomplete, because the
-	 *	getLineData() method is designed to not reference other lines. This
-	 *	method traverses each line, from the beginning to the end of the entire
-	 *	Markdown file, to determine the "real" type of each line. A data
-	 *	structure `openVector` represents the status of the current line which
-	 *	can be determined by all the lines accessed above.
+	 *	getLineData() method is designed to not reference other lines. The
+	 *	pass in modified() goes through the lines from the top to determine
+	 *	the "real" type of each line. A data structure `openVector` represents
+	 *	the status of the current line which can be determined by all the
+	 *	lines accessed above.
 	 */
 	private static void computeOpenVector(IntVector oVec, LineData ld) {
 		IntVector blocks = ld.blocks;
@@ -617,129 +725,173 @@ class MarkdownSourceModel extends PassiveModel {
 		return false;
 	}
 
-	/* ---- The core method `modified()` ----------------------------------- */
-
-	void modified() {
+	/* ---- The core method `updateLine()` --------------------------------- */
 
-		IntVector oVec = new IntVector();
-		int codeIndent = -1; // a negative value as a flag
+	/*
+	 *	The pass in modified() begins at the line above the first changed
+	 *	line, and the line right below the changed lines is always parsed,
+	 *	since a setext heading is only known by its underline.
+	 */
+	int getDirtyMargin() {
+		return 1;
+	}
 
-		for (int row = 0; row < getLineCount(); row += 1) {
-			LineData ld = (LineData) lineDataVector.elementAt(row);
-			ld.runningStyle = DEFAULT;
+	void beginUpdate(int row) {
+		blockState = new BlockState();
+		upLineData = null;
+		if (row > 0) {
+			LineData ld = (LineData) lineDataTree.elementAt(row);
+			blockState.restore(ld.beginState);
+			upLineData = (LineData) lineDataTree.elementAt(row - 1);
+		}
+	}
 
-			int oVecState = oVec.size();
-			computeOpenVector(oVec, ld); // each line should be evaluated
-			codeIndent = computeCodeIndent(oVec, ld, codeIndent, oVecState);
+	boolean updateLine(int row, boolean isDirty) {
+		LineData ld = (LineData) lineDataTree.elementAt(row);
+		int[] state = blockState.save();
+		if ((! isDirty) && isEqual(ld.beginState, state)) {
+			return false;
+		}
+		ld.beginState = state;
+		parseLine(blockState, ld, row);
+		int weight = isHeading(ld, upLineData) ? 1 : 0;
+		lineDataTree.setElementAt(ld, row, weight);
+		blockState.upFixedStyle = ld.fixedStyle;
+		blockState.isUpBlank = isBlankLine(ld);
+		upLineData = ld;
+		return true;
+	}
 
-			if (codeIndent >= 0) {
-				ld.runningStyle = CODE;
+	/*
+	 *	This method determines the running style of a line from the state at
+	 *	the beginning of it, and updates the state for the next line. A fenced
+	 *	code block without the closing fence is continued to the end of the
+	 *	file, and so is an HTML block.
+	 *
+	 *	The fenced Java code is lexed here by JavaSourceModel, and the state
+	 *	of its lexer is a part of the state of the pass. Therefore, only the
+	 *	changed lines are lexed again, and the lines below them until the
+	 *	state converges, e.g. when a block comment is opened.
+	 */
+	private void parseLine(BlockState bs, LineData ld, int row) {
+		ld.isSetextUnderline = false;
+		ld.javaSpans = null;
+		if (bs.mode == FENCED_CODE_MODE) {
+			ld.codeIndent = -1;
+			if ((ld.fixedStyle == bs.fenceStyle)
+					&& (ld.indent <= bs.fenceIndent)) {
+				ld.runningStyle = DEFAULT; // the closing fence
+				bs.mode = NORMAL_MODE;
+				bs.javaState = -1;
 			} else {
-				if (ld.fixedStyle == REFERENCE_WITH_TITLE) {
-					continue;
-				} else if (ld.fixedStyle == REFERENCE_WITHOUT_TITLE) {
-					if ((row + 1) < getLineCount()) {
-						char[] lineDown = getLine(row + 1);
-						if (hasTitle(lineDown, 0)) {
-							LineData ldDown = (LineData)
-									lineDataVector.elementAt(row + 1);
-							ldDown.runningStyle = TITLE;
-							ldDown.codeIndent = -1;
-							row += 1;
-						}
-					}
-					continue;
-				} else if ((ld.fixedStyle == CONTINUOUS_BACKTICK)
-						|| (ld.fixedStyle == CONTINUOUS_TILDE)) {
-					int indent = ld.indent;
-					int lineCount = 1;
-					boolean isFencedCodeBlock = false;
-					while ((row + lineCount) < getLineCount()) {
-						LineData ldEnd = (LineData)
-								lineDataVector.elementAt(row + lineCount);
-						if ((ldEnd.fixedStyle == ld.fixedStyle)
-								&& (ldEnd.indent <= indent)) {
-							isFencedCodeBlock = true;
-							break;
-						}
-						ldEnd.runningStyle = FENCED_CODE;
-						ldEnd.codeIndent = -1;
-						lineCount += 1;
-					}
-					if (isFencedCodeBlock) {
-						row += lineCount;
-						continue;
-					}
-				} else if (ld.fixedStyle == HTML_BLOCK_BOUNDARY) {
-					boolean isValidHtmlBlockBegin = false;
-					if (row == 0) {
-						isValidHtmlBlockBegin = true;
-					} else {
-						LineData ldUp = (LineData)
-								lineDataVector.elementAt(row - 1);
-						if ((ldUp.blocks.size() == 0) && (! ldUp.hasText)) {
-							isValidHtmlBlockBegin = true;
-						}
-					}
-
-					if (isValidHtmlBlockBegin) {
-						int lineCount = 1;
-						boolean isValidHtmlBlock = false;
-						while ((row + lineCount) < getLineCount()) {
-							int end = row + lineCount;
-							LineData ldBoundary = (LineData)
-									lineDataVector.elementAt(end - 1);
-							LineData ldEnd = (LineData)
-									lineDataVector.elementAt(end);
-							if ((ldBoundary.fixedStyle == HTML_BLOCK_BOUNDARY)
-									&& (ldEnd.blocks.size() == 0)
-									&& (! ldEnd.hasText)) {
-								isValidHtmlBlock = true;
-								break;
-							}
-							ldEnd.runningStyle = HTML_BLOCK;
-							ldEnd.codeIndent = -1;
-							lineCount += 1;
-						}
-						if (isValidHtmlBlock) {
-							row += lineCount;
-							continue;
-						}
-						if ((row + lineCount) == getLineCount()) {
-							break;
-						}
-					}
+				ld.runningStyle = FENCED_CODE;
+				if (bs.javaState >= 0) {
+					javaSpanVector.removeAllElements();
+					bs.javaState = JavaSourceModel.lexLine(getLine(row),
+							bs.javaState, javaSpanVector);
+					ld.javaSpans = ColorSpans.toArray(javaSpanVector);
 				}
 			}
+			return;
+		} else if (bs.mode == HTML_BLOCK_MODE) {
+			ld.codeIndent = -1;
+			if ((bs.upFixedStyle == HTML_BLOCK_BOUNDARY) && isBlankLine(ld)) {
+				ld.runningStyle = DEFAULT; // the end of the HTML block
+				bs.mode = NORMAL_MODE;
+			} else {
+				ld.runningStyle = HTML_BLOCK;
+			}
+			return;
+		} else if ((bs.mode == REFERENCE_MODE) && ld.isTitle) {
+			ld.codeIndent = -1;
+			ld.runningStyle = TITLE;
+			bs.mode = NORMAL_MODE;
+			return;
+		}
+		bs.mode = NORMAL_MODE;
+		ld.runningStyle = DEFAULT;
+
+		IntVector oVec = bs.openVector;
+		int oVecState = oVec.size();
+		computeOpenVector(oVec, ld); // each line should be evaluated
+		bs.codeIndent = computeCodeIndent(oVec, ld, bs.codeIndent, oVecState);
+
+		if (bs.codeIndent >= 0) {
+			ld.runningStyle = CODE;
+		} else if (ld.fixedStyle == REFERENCE_WITH_TITLE) {
+			return;
+		} else if (ld.fixedStyle == REFERENCE_WITHOUT_TITLE) {
+			bs.mode = REFERENCE_MODE;
+			return;
+		} else if ((ld.fixedStyle == CONTINUOUS_BACKTICK)
+				|| (ld.fixedStyle == CONTINUOUS_TILDE)) {
+			bs.mode = FENCED_CODE_MODE;
+			bs.fenceStyle = ld.fixedStyle;
+			bs.fenceIndent = ld.indent;
+			bs.javaState = ld.isJavaFence ? JavaSourceModel.STATE_NORMAL : -1;
+			return;
+		} else if ((ld.fixedStyle == HTML_BLOCK_BOUNDARY) && bs.isUpBlank) {
+			bs.mode = HTML_BLOCK_MODE;
+			return;
+		}
 
-			ld.codeIndent = codeIndent;
+		ld.codeIndent = bs.codeIndent;
 
-			/*
-			 *	The Markdown setext heading is determined here because it needs
-			 *	the information of the previous line.
-			 */
-			if (row > 0) {
-				LineData ldUp = (LineData) lineDataVector.elementAt(row - 1);
-				if (ldUp.fixedStyle == HAS_SETEXT_HEADING) {
-					ldUp.fixedStyle = DEFAULT; // reset the fixedStyle here
-				}
-				if (((ld.fixedStyle == CONTINUOUS_EQUALS_SIGN)
-						|| (ld.fixedStyle == CONTINUOUS_MINUS_SIGN))
-						&& (ld.runningStyle != CODE)
-						&& (ldUp.fixedStyle == DEFAULT)) {
-					// the only place to set the HAS_SETEXT_HEADING fixedStyle
-					ldUp.fixedStyle = HAS_SETEXT_HEADING;
-				}
-			}
+		/*
+		 *	The Markdown setext heading is determined here because it needs
+		 *	the information of the previous line.
+		 */
+		ld.isSetextUnderline = ((ld.fixedStyle == CONTINUOUS_EQUALS_SIGN)
+				|| (ld.fixedStyle == CONTINUOUS_MINUS_SIGN))
+				&& (ld.runningStyle != CODE)
+				&& (bs.upFixedStyle == DEFAULT);
+	}
+
+	/* ---- The methods for the outline of the headings -------------------- */
+
+	/*
+	 *	The weight of a setext heading is put on its underline, since the
+	 *	heading is only known when the underline is parsed.
+	 */
+	private static boolean isHeading(LineData ld, LineData ldUp) {
+		if (ld.runningStyle != DEFAULT) {
+			return false;
+		} else if (ld.fixedStyle == HAS_ATX_HEADING) {
+			return true;
 		}
+		return ld.isSetextUnderline && (ldUp != null) && ldUp.hasText
+				&& (ldUp.runningStyle != CODE);
+	}
 
+	/*
+	 *	A heading has the weight 1 in the lineDataTree, so each of them is
+	 *	found by the sum of the weights before it in O(log n).
+	 */
+	synchronized int[] getOutlineRows() {
+		LineTree tree = lineDataTree;
+		int[] rows = new int[tree.getWeightSum(tree.size())];
+		for (int i = 0; i < rows.length; i += 1) {
+			int row = tree.indexOfWeightSum(i);
+			LineData ld = (LineData) tree.elementAt(row);
+			rows[i] = ld.isSetextUnderline ? (row - 1) : row;
+		}
+		return rows;
 	}
 
 	/* ---- The methods for assigning the color codes of a line ------------ */
 
 	byte[] computeColorCodes(byte[] colorCodes, int row) {
 		char[] line = getLine(row);
-		LineData ld = (LineData) lineDataVector.elementAt(row);
+		LineData ld = (LineData) lineDataTree.elementAt(row);
+
+		/*
+		 *	The heading of a setext underline is only known by the next line.
+		 */
+		byte fixedStyle = ld.fixedStyle;
+		if (((row + 1) < getLineCount()) && ((LineData) lineDataTree
+				.elementAt(row + 1)).isSetextUnderline) {
+			fixedStyle = HAS_SETEXT_HEADING;
+		}
 
 		/*
 		 *	Assigning colors by the "running style" of the line.
@@ -749,7 +901,15 @@ class MarkdownSourceModel extends PassiveModel {
 			if (ld.runningStyle == TITLE) {
 				doColor(colorCodes, 0, line.length, COLOR_LINK);
 			} else if (ld.runningStyle == FENCED_CODE) {
-				doColor(colorCodes, 0, line.length, COLOR_CODE);
+				int[] spans = ld.javaSpans;
+				if (spans != null) {
+					for (int i = 0; i < spans.length; i += 3) {
+						doColor(colorCodes, spans[i], spans[i + 1],
+								(byte) spans[i + 2]);
+					}
+				} else {
+					doColor(colorCodes, 0, line.length, COLOR_CODE);
+				}
 			} else if (ld.runningStyle == CODE) {
 				int beginCol = 0;
 				int codeIndent = 0;
@@ -787,7 +947,7 @@ class MarkdownSourceModel extends PassiveModel {
 		 *	Assigning colors of the Markdown inline elements.
 		 */
 
-		if ((ld.fixedStyle == DEFAULT) && (ld.inlines != null)) {
+		if ((fixedStyle == DEFAULT) && (ld.inlines != null)) {
 			for (int i = 0; i < ld.inlines.size(); i += 3) {
 				int type = ld.inlines.elementAt(i);
 				int begin = ld.inlines.elementAt(i + 1);
@@ -813,31 +973,30 @@ class MarkdownSourceModel extends PassiveModel {
 		 */
 
 		byte color = 0;
-		if ((ld.fixedStyle == CONTINUOUS_BACKTICK)
-				|| (ld.fixedStyle == CONTINUOUS_TILDE)) {
+		if ((fixedStyle == CONTINUOUS_BACKTICK)
+				|| (fixedStyle == CONTINUOUS_TILDE)) {
 			color = COLOR_CODE;
-		} else if ((ld.fixedStyle == CONTINUOUS_EQUALS_SIGN)
-				|| (ld.fixedStyle == CONTINUOUS_MINUS_SIGN)) {
-			LineData ldUp = (LineData) lineDataVector.elementAt(row - 1);
-			if ((ldUp.fixedStyle == HAS_SETEXT_HEADING)
-					&& (ldUp.runningStyle != CODE)) {
+		} else if ((fixedStyle == CONTINUOUS_EQUALS_SIGN)
+				|| (fixedStyle == CONTINUOUS_MINUS_SIGN)) {
+			LineData ldUp = (LineData) lineDataTree.elementAt(row - 1);
+			if (ld.isSetextUnderline && (ldUp.runningStyle != CODE)) {
 				if (ldUp.hasText) {
 					// interpreted as the underline of heading
 					color = COLOR_HEADING;
-				} else if (ld.fixedStyle == CONTINUOUS_MINUS_SIGN) {
+				} else if (fixedStyle == CONTINUOUS_MINUS_SIGN) {
 					// interpreted as a thematic break
 					color = COLOR_THEMATIC_BREAK;
 				}
 			}
-		} else if ((ld.fixedStyle == HAS_SETEXT_HEADING)
-				|| (ld.fixedStyle == HAS_ATX_HEADING)) {
+		} else if ((fixedStyle == HAS_SETEXT_HEADING)
+				|| (fixedStyle == HAS_ATX_HEADING)) {
 			color = COLOR_HEADING;
-		} else if (ld.fixedStyle == HAS_THEMATIC_BREAK) {
+		} else if (fixedStyle == HAS_THEMATIC_BREAK) {
 			color = COLOR_THEMATIC_BREAK;
-		} else if ((ld.fixedStyle == REFERENCE_WITH_TITLE)
-				|| (ld.fixedStyle == REFERENCE_WITHOUT_TITLE)) {
+		} else if ((fixedStyle == REFERENCE_WITH_TITLE)
+				|| (fixedStyle == REFERENCE_WITHOUT_TITLE)) {
 			color = COLOR_LINK;
-		} else if (ld.fixedStyle == HTML_BLOCK_BOUNDARY) {
+		} else if (fixedStyle == HTML_BLOCK_BOUNDARY) {
 			color = COLOR_HTML_BLOCK;
 		}
 		if (color > 0) {
@@ -0,0 +1,103 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.util.*;
+
+/*
+ *	This class describes a change of the text of a model. The lines between
+ *	`firstRow` and (firstRow + oldLineCount - 1) were replaced by the lines
+ *	between `firstRow` and (firstRow + newLineCount - 1). In other words, the
+ *	text from (firstRow, beginColumn) to the `oldEndColumn` of the last old
+ *	line was replaced by the text from (firstRow, beginColumn) to the
+ *	`newEndColumn` of the last new line.
+ */
+class ModelEvent extends EventObject {
+
+	int firstRow;
+	int oldLineCount;
+	int newLineCount;
+	int beginColumn;
+	int oldEndColumn;
+	int newEndColumn;
+
+	ModelEvent(AbstractModel model, int firstRow,
+			int oldLineCount, int newLineCount,
+			int beginColumn, int oldEndColumn, int newEndColumn) {
+		super(model);
+		this.firstRow = firstRow;
+		this.oldLineCount = oldLineCount;
+		this.newLineCount = newLineCount;
+		this.beginColumn = beginColumn;
+		this.oldEndColumn = oldEndColumn;
+		this.newEndColumn = newEndColumn;
+	}
+
+	/*
+	 *	This method returns the last row of the new lines.
+	 */
+	int getLastRow() {
+		return firstRow + newLineCount - 1;
+	}
+
+	/*
+	 *	This method returns an event which is equivalent to this event
+	 *	followed by the given event, e.g. to describe a batch of changes.
+	 *	The positions are handled as { row, column } pairs.
+	 */
+	ModelEvent merge(ModelEvent e) {
+		int[] begin1 = new int[] { firstRow, beginColumn };
+		int[] oldEnd1 = new int[] { firstRow + oldLineCount - 1,
+				oldEndColumn };
+		int[] newEnd1 = new int[] { getLastRow(), newEndColumn };
+		int[] begin2 = new int[] { e.firstRow, e.beginColumn };
+		int[] oldEnd2 = new int[] { e.firstRow + e.oldLineCount - 1,
+				e.oldEndColumn };
+		int[] newEnd2 = new int[] { e.getLastRow(), e.newEndColumn };
+
+		int[] begin = isBefore(begin2, begin1) ? begin2 : begin1;
+
+		// the new end of this event after the given event is applied
+		int[] newEnd = newEnd1;
+		if (! isBefore(newEnd1, begin2)) {
+			if (isBefore(newEnd1, oldEnd2)) { // inside the replaced text
+				newEnd = newEnd2;
+			} else if (newEnd1[0] == oldEnd2[0]) {
+				newEnd = new int[] { newEnd2[0],
+						newEnd2[1] + (newEnd1[1] - oldEnd2[1]) };
+			} else {
+				newEnd = new int[] { newEnd1[0] + (newEnd2[0] - oldEnd2[0]),
+						newEnd1[1] };
+			}
+		}
+		newEnd = isBefore(newEnd, newEnd2) ? newEnd2 : newEnd;
+
+		// the old end of the given event before this event was applied
+		int[] oldEnd = oldEnd2;
+		if (! isBefore(oldEnd2, begin1)) {
+			if (isBefore(oldEnd2, newEnd1)) { // inside the inserted text
+				oldEnd = oldEnd1;
+			} else if (oldEnd2[0] == newEnd1[0]) {
+				oldEnd = new int[] { oldEnd1[0],
+						oldEnd1[1] + (oldEnd2[1] - newEnd1[1]) };
+			} else {
+				oldEnd = new int[] { oldEnd2[0] - (newEnd1[0] - oldEnd1[0]),
+						oldEnd2[1] };
+			}
+		}
+		oldEnd = isBefore(oldEnd, oldEnd1) ? oldEnd1 : oldEnd;
+
+		return new ModelEvent((AbstractModel) getSource(), begin[0],
+				oldEnd[0] - begin[0] + 1, newEnd[0] - begin[0] + 1,
+				begin[1], oldEnd[1], newEnd[1]);
+	}
+
+	private static boolean isBefore(int[] pos1, int[] pos2) {
+		return (pos1[0] < pos2[0])
+				|| ((pos1[0] == pos2[0]) && (pos1[1] < pos2[1]));
+	}
+
+}
@@ -0,0 +1,18 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.util.*;
+
+/*
+ *	A listener is notified after the text of a model has been changed, so that
+ *	it only has to update the affected lines (see ModelEvent).
+ */
+interface ModelListener extends EventListener {
+
+	void modelChanged(ModelEvent e);
+
+}
@@ -0,0 +1,60 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.io.*;
+
+/*
+ *	This class reads the text of a model directly from the lines of a
+ *	snapshot, and a line feed is produced between every two lines. Therefore,
+ *	the whole document can be streamed (e.g. to a file) without building a
+ *	String of it, and the model may still be edited while it is being read.
+ */
+class ModelReader extends Reader {
+
+	private ModelSnapshot snapshot;
+	private int row = 0;
+	private int column = 0;
+
+	ModelReader(ModelSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (snapshot == null) {
+			throw new IOException("Stream closed");
+		}
+
+		int lc = snapshot.getLineCount();
+		int count = 0;
+		while ((count < len) && (row < lc)) {
+			char[] line = snapshot.getLine(row);
+			if (column < line.length) {
+				int n = Math.min(len - count, line.length - column);
+				System.arraycopy(line, column, cbuf, off + count, n);
+				column += n;
+				count += n;
+			} else { // at the end of the line
+				if ((row + 1) < lc) {
+					cbuf[off + count] = '\n';
+					count += 1;
+				}
+				row += 1;
+				column = 0;
+			}
+		}
+		return ((count == 0) && (len > 0)) ? -1 : count;
+	}
+
+	public boolean ready() {
+		return (snapshot != null);
+	}
+
+	public void close() {
+		snapshot = null;
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This class holds the text of a model at a certain version. It never
+ *	changes, so another thread can read it (e.g. to save or search the text)
+ *	while the model is still being edited. The lines are shared with the model
+ *	(see LineStore.snapshot()), so taking a snapshot costs little.
+ *
+ *	The version is increased by every change of the model, so the results
+ *	derived from a snapshot can be dropped when the version is out of date.
+ */
+class ModelSnapshot {
+
+	private LineStore lineStore;
+	private int version;
+
+	/*
+	 *	The hot line of the model is not written back to its lineStore for
+	 *	a snapshot, so the line is kept here instead.
+	 */
+	private int hotRow;
+	private char[] hotLine;
+
+	ModelSnapshot(LineStore lineStore, int version,
+			int hotRow, char[] hotLine) {
+		this.lineStore = lineStore;
+		this.version = version;
+		this.hotRow = hotRow;
+		this.hotLine = hotLine;
+	}
+
+	int getVersion() {
+		return version;
+	}
+
+	int getLineCount() {
+		return lineStore.size();
+	}
+
+	/*
+	 *	The lineStore caches the lines it reads, so the readers are serialized.
+	 */
+	synchronized char[] getLine(int row) {
+		if (row == hotRow) {
+			return hotLine;
+		}
+		return lineStore.getLine(row);
+	}
+
+	synchronized int getCharCount() {
+		int count = lineStore.getLength();
+		if (hotRow >= 0) {
+			count += hotLine.length - lineStore.getLine(hotRow).length;
+		}
+		return count;
+	}
+
+}
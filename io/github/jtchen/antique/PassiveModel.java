@@ -12,19 +12,76 @@ import java.util.*;
  *	for other classes, and it will be used to edit plain text, only search
  *	result highlighting and messy whitespace hinting are implemented. In other
  *	cases, the method getColorCodes() will returns Theme.FOREGROUND_COLOR.
+ *
+ *	The syntax colors are computed by a Highlighter in another thread, so the
+ *	methods which read the lines or change the text are synchronized.
  */
 class PassiveModel extends AbstractModel {
 
 	private char[] emptyLine = new char[0];
 
-	private Vector lineVector = new Vector(); // of char[]
+	private LineStore lineStore;
 	private Range selection = new Range();
-	private int charCount = 0;
 
 	private AbstractEditor.MatchConfig matchConfig = null;
 
+	private Vector listenerVector = new Vector(); // of ModelListener
+	private Hashtable propertyTable = new Hashtable(); // see getProperty()
+
+	private int batchDepth = 0;
+	private ModelEvent batchEvent = null; // the merged changes of a batch
+
+	/*
+	 *	These vectors are reused to compute the colors of every line.
+	 */
+	private IntVector spanVector = new IntVector();
+	private IntVector decorationVector = new IntVector();
+	private IntVector matchVector = new IntVector();
+	private IntVector whitespaceVector = new IntVector();
+	private IntVector matchBeginVector = new IntVector();
+	private IntVector occurrenceVector = new IntVector();
+	private IntVector wordVector = new IntVector();
+
+	/*
+	 *	The rows of the occurrences of the word at the caret are looked up in
+	 *	the wordIndex for a window of rows at a time, and they are kept until
+	 *	the text is changed or the caret is moved.
+	 */
+	private static final int OCCURRENCE_WINDOW = 256; // rows
+
+	private WordIndex wordIndex = null; // see indexWords()
+	private String occurrenceWord = null; // null if not at a word
+	private int occurrenceVersion = -1; // of the occurrenceWord
+	private int occurrenceBeginRow = 0;
+	private int occurrenceEndRow = -1;
+	private IntVector occurrenceRowVector = new IntVector(); // in the window
+
+	private int version = 0;
+
+	/*
+	 *	The syntax colors of the lines between these rows may have been
+	 *	changed by the last change of the text (see addRecoloredRows()).
+	 */
+	private int recoloredBeginRow = 0;
+	private int recoloredEndRow = -1;
+	private ModelSnapshot snapshot = null; // the latest one, may be outdated
+
 	private Caret caret = new Caret();
 
+	/*
+	 *	The line holding the caret is kept in a gap buffer, so that typing or
+	 *	deleting chars in it does not allocate a new line each time. The chars
+	 *	are in hotBuffer[0, gapBegin) and hotBuffer[gapEnd, hotBuffer.length).
+	 */
+	private static final int MIN_GAP_SIZE = 64;
+
+	private int hotRow = -1; // no hot line
+	private int hotStoredLength = 0; // the length in the lineStore
+	private char[] hotBuffer = new char[MIN_GAP_SIZE];
+	private int gapBegin = 0;
+	private int gapEnd = 0;
+	private char[] hotLine = null; // materialized hot line, null when stale
+
 	private static class Caret {
 		private int row = 0;
 		private int column = 0;
@@ -41,15 +98,29 @@ class PassiveModel extends AbstractModel {
 	}
 
 	PassiveModel() {
-		lineVector.insertElementAt(emptyLine, 0);
+		this(new LineArrayStore());
+	}
+
+	/*
+	 *	The line storage may already contain the text of a document, e.g. when
+	 *	a large file is loaded into the original buffer of a PieceTable.
+	 */
+	PassiveModel(LineStore lineStore) {
+		this.lineStore = lineStore;
 	}
 
-	void cloneFrom(AbstractModel model) {
+	/*
+	 *	This method is called on an empty model, and the lines of the given
+	 *	model are shared instead of being copied through a String.
+	 */
+	synchronized void cloneFrom(AbstractModel model) {
 		int lc = model.getLineCount();
-		Range range = new Range();
-		range.setEnd(lc - 1, model.getLine(lc - 1).length);
+		setLine(model.getLine(0), 0);
+		for (int row = 1; row < lc; row += 1) {
+			insertLine(model.getLine(row), row);
+		}
+		changed(0, 1, lc, 0, 0, model.getLine(lc - 1).length);
 
-		insertString(model.getStringByRange(range));
 		Range sel = model.getSelection();
 		if (sel != null) {
 			setSelectionBegin(sel.beginRow, sel.beginColumn);
@@ -59,7 +130,7 @@ class PassiveModel extends AbstractModel {
 	}
 
 	int getCharCount() {
-		return charCount;
+		return lineStore.getLength() + getHotLineDelta();
 	}
 
 	String getStringByRange(Range range) {
@@ -87,12 +158,18 @@ class PassiveModel extends AbstractModel {
 
 	/* ---- Convenience methods for lines and the caret -------------------- */
 
-	char[] getLine(int row) {
-		return (char[]) lineVector.elementAt(row);
+	synchronized char[] getLine(int row) {
+		if (row == hotRow) {
+			if (hotLine == null) {
+				hotLine = materializeHotLine();
+			}
+			return hotLine;
+		}
+		return lineStore.getLine(row);
 	}
 
 	int getLineCount() {
-		return lineVector.size();
+		return lineStore.size();
 	}
 
 	int getCaretRow() {
@@ -103,12 +180,42 @@ class PassiveModel extends AbstractModel {
 		return caret.getColumn();
 	}
 
+	/*
+	 *	The offsets are found through the lineStore in O(log n), and only the
+	 *	difference made by the hot line has to be added.
+	 */
+	int getOffset(int row, int col) {
+		int offset = lineStore.getLineOffset(row) + col;
+		if ((hotRow >= 0) && (row > hotRow)) {
+			offset += getHotLineDelta();
+		}
+		return offset;
+	}
+
+	int[] getPosition(int offset) {
+		if (hotRow >= 0) {
+			int hotBegin = lineStore.getLineOffset(hotRow);
+			int hotEnd = hotBegin + hotStoredLength + getHotLineDelta();
+			if ((offset >= hotBegin) && (offset <= hotEnd)) {
+				return new int[] { hotRow, offset - hotBegin };
+			} else if (offset > hotEnd) {
+				offset -= getHotLineDelta();
+			}
+		}
+		int row = lineStore.getRow(offset);
+		return new int[] { row, offset - lineStore.getLineOffset(row) };
+	}
+
 	void setCaret(int[] pos) {
 		setCaret(pos[0], pos[1]);
 	}
 
-	void setCaret(int row, int col) {
+	synchronized void setCaret(int row, int col) {
+		if (row != hotRow) { // the caret leaves the hot line
+			flushHotLine();
+		}
 		caret.set(row, col);
+		occurrenceVersion = -1; // the word at the caret is found again
 	}
 
 	/* ---- Convenience methods to highlight the syntax -------------------- */
@@ -123,17 +230,15 @@ class PassiveModel extends AbstractModel {
 
 	/* ---- The methods to highlight the syntax ---------------------------- */
 
-	private static void applyMask(
-			byte[] colorCodes, int begin, int end, byte mask) {
-		for (int col = begin; col < end; col += 1) {
-			colorCodes[col] |= mask;
-		}
-	}
-
-	private byte[] highlightMatchTarget(byte[] colorCodes, int row) {
+	/*
+	 *	The matches are added as spans of the MATCH_MASK in order.
+	 */
+	private void highlightMatchTarget(IntVector v, int row) {
 		char[] line = getLine(row);
 		if ((matchConfig != null) && (matchConfig.target.length() > 0)) {
 			String target = matchConfig.target;
+			IntVector matches = matchBeginVector;
+			matches.removeAllElements();
 			int pos = matchConfig.isForwardMatch ? 0 : line.length - 1;
 			while (true) {
 				int begin = matchConfig.isForwardMatch
@@ -142,19 +247,29 @@ class PassiveModel extends AbstractModel {
 				if (begin == -1) { // not matched in the current line
 					break;
 				}
+				matches.addElement(begin);
 				int end = begin + target.length();
-				applyMask(colorCodes, begin, end, Theme.MATCH_MASK);
 				pos = matchConfig.isForwardMatch
 						? end : begin - target.length();
 			}
+			for (int i = 0; i < matches.size(); i += 1) {
+				int begin = matchConfig.isForwardMatch
+						? matches.elementAt(i)
+						: matches.elementAt(matches.size() - i - 1);
+				ColorSpans.add(v, begin, begin + target.length(),
+						Theme.MATCH_MASK);
+			}
 		}
-		return colorCodes;
 	}
 
-	private byte[] highlightMessyWhitespace(byte[] colorCodes, int row) {
+	/*
+	 *	The messy whitespace is added as spans of the MESSY_WHITESPACE_MASK
+	 *	in order.
+	 */
+	private void highlightMessyWhitespace(IntVector v, int row) {
 		char[] line = getLine(row);
 		if (line.length == 0) {
-			return colorCodes;
+			return;
 		}
 
 		int headPos = 0;
@@ -168,8 +283,8 @@ class PassiveModel extends AbstractModel {
 			}
 		}
 		if (headSpaceCount == line.length) { // this line is empty
-			applyMask(colorCodes, 0, line.length, Theme.MESSY_WHITESPACE_MASK);
-			return colorCodes;
+			ColorSpans.add(v, 0, line.length, Theme.MESSY_WHITESPACE_MASK);
+			return;
 		}
 
 		int tailPos = (line.length - 1);
@@ -195,7 +310,7 @@ class PassiveModel extends AbstractModel {
 						}
 					}
 					if ((end - col) > 1) {
-						applyMask(colorCodes, col, end,
+						ColorSpans.add(v, col, end,
 								Theme.MESSY_WHITESPACE_MASK);
 					}
 					col = end;
@@ -204,29 +319,222 @@ class PassiveModel extends AbstractModel {
 		}
 
 		if (tailSpaceCount > 0) { // marks trailing spaces
-			applyMask(colorCodes, tailPos, line.length,
+			ColorSpans.add(v, tailPos, line.length,
 					Theme.MESSY_WHITESPACE_MASK);
 		}
+	}
 
-		return colorCodes;
+	/*
+	 *	The other occurrences of the word at the caret are added as spans of
+	 *	the OCCURRENCE_MASK in order. Only the lines found in the wordIndex
+	 *	are split into words, so moving the caret does not scan the document.
+	 */
+	private void highlightOccurrences(IntVector v, int row) {
+		if (isInBatch()) { // the wordIndex is updated after a batch
+			return;
+		}
+		if (occurrenceVersion != version) {
+			char[] line = getLine(getCaretRow());
+			occurrenceWord = (line.length > LONG_LINE_LENGTH) ? null
+					: WordIndex.getWordAt(line, getCaretColumn());
+			occurrenceVersion = version;
+			occurrenceEndRow = -1;
+		}
+		if (occurrenceWord == null) {
+			return;
+		}
+		if ((row < occurrenceBeginRow) || (row > occurrenceEndRow)) {
+			WordIndex wi = getWordIndex();
+			if (wi == null) { // not built yet
+				return;
+			}
+			occurrenceBeginRow = row;
+			occurrenceEndRow = Math.min(row + OCCURRENCE_WINDOW,
+					getLineCount()) - 1;
+			wi.getRows(occurrenceWord, occurrenceBeginRow,
+					occurrenceEndRow, occurrenceRowVector);
+		}
+		if (! containsRow(occurrenceRowVector, row)) {
+			return;
+		}
+
+		char[] line = getLine(row);
+		int caretCol = (row == getCaretRow()) ? getCaretColumn() : -1;
+		WordIndex.findWords(line, wordVector);
+		for (int i = 0; i < wordVector.size(); i += 2) {
+			int begin = wordVector.elementAt(i);
+			int end = wordVector.elementAt(i + 1);
+			if (((caretCol < begin) || (caretCol > end))
+					&& isWord(line, begin, end, occurrenceWord)) {
+				ColorSpans.add(v, begin, end, Theme.OCCURRENCE_MASK);
+			}
+		}
+	}
+
+	private static boolean containsRow(IntVector rows, int row) {
+		int low = 0;
+		int high = rows.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (rows.elementAt(mid) < row) {
+				low = mid + 1;
+			} else if (rows.elementAt(mid) > row) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWord(char[] line, int begin, int end,
+			String word) {
+		if ((end - begin) != word.length()) {
+			return false;
+		}
+		for (int col = begin; col < end; col += 1) {
+			if (line[col] != word.charAt(col - begin)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	synchronized byte[] getColorCodes(int row) {
+		byte[] colorCodes = new byte[getLine(row).length];
+		getColorCodes(row, colorCodes);
+		return colorCodes;
+	}
+
+	/*
+	 *	The given array must not be shorter than the line.
+	 */
+	synchronized void getColorCodes(int row, byte[] colorCodes) {
+		getColorSpans(row, getSyntaxColorSpans(row), spanVector);
+		ColorSpans.fill(spanVector, colorCodes, getLine(row).length);
+	}
+
+	synchronized int[] getColorSpans(int row) {
+		return getColorSpans(row, getSyntaxColorSpans(row));
+	}
+
+	synchronized int[] getSyntaxColorSpans(int row) {
+		if (isLongLine(row)) {
+			return ColorSpans.EMPTY;
+		}
+		return computeColorSpans(row);
+	}
+
+	synchronized boolean isLongLine(int row) {
+		return (getLine(row).length > LONG_LINE_LENGTH);
+	}
+
+	/*
+	 *	The syntax colors are not used if they do not fit the current line,
+	 *	e.g. when they were computed before the line was changed.
+	 */
+	synchronized int[] getColorSpans(int row, int[] syntaxColorSpans) {
+		IntVector v = new IntVector();
+		getColorSpans(row, syntaxColorSpans, v);
+		return ColorSpans.toArray(v);
+	}
+
+	/*
+	 *	The highlights are collected as layers of spans, and they are put on
+	 *	the syntax colors in one pass. Only the given vector and the vectors
+	 *	of this model are used, so nothing is allocated for each line.
+	 */
+	synchronized void getColorSpans(int row, int[] syntaxColorSpans,
+			IntVector colorSpans) {
+		int length = getLine(row).length;
+		if (length > LONG_LINE_LENGTH) { // shown plain
+			colorSpans.removeAllElements();
+			return;
+		}
+		int[] spans = ColorSpans.EMPTY;
+		if ((syntaxColorSpans != null)
+				&& (ColorSpans.getEnd(syntaxColorSpans) <= length)) {
+			spans = syntaxColorSpans;
+		}
+
+		decorationVector.removeAllElements();
+		decorateColorSpans(decorationVector, row);
+		matchVector.removeAllElements();
+		highlightMatchTarget(matchVector, row);
+		whitespaceVector.removeAllElements();
+		highlightMessyWhitespace(whitespaceVector, row);
+		occurrenceVector.removeAllElements();
+		highlightOccurrences(occurrenceVector, row);
+		ColorSpans.overlay(spans, decorationVector, matchVector,
+				whitespaceVector, occurrenceVector, colorSpans);
+	}
+
+	/*
+	 *	This method may be overridden to compute the spans directly. By
+	 *	default, the spans are built from computeColorCodes().
+	 */
+	int[] computeColorSpans(int row) {
 		char[] line = getLine(row);
 		byte[] colorCodes = new byte[line.length];
 		colorCodes = computeColorCodes(colorCodes, row);
 		for (int col = 0; col < line.length; col += 1) {
 			colorCodes[col] &= Theme.COLOR_MASK;
 		}
-		colorCodes = highlightMatchTarget(colorCodes, row);
-		colorCodes = highlightMessyWhitespace(colorCodes, row);
-		return colorCodes;
+		return ColorSpans.fromColorCodes(colorCodes);
 	}
 
+	/*
+	 *	This method is intended to be overridden. The color codes computed
+	 *	here must only depend on the text of the model.
+	 */
 	byte[] computeColorCodes(byte[] colorCodes, int row) {
 		return colorCodes;
 	}
 
+	/*
+	 *	This method is intended to be overridden to add the spans of the
+	 *	states other than the text in order, e.g. the brackets matched at the
+	 *	caret. They replace the syntax colors.
+	 */
+	void decorateColorSpans(IntVector v, int row) {}
+
+	/*
+	 *	This method is intended to be overridden. A plain text has no outline.
+	 */
+	synchronized int[] getOutlineRows() {
+		return new int[0];
+	}
+
+	/* ---- Methods to complete a word ------------------------------------- */
+
+	synchronized void getCompletions(String prefix, int maxCount,
+			Vector words, IntVector counts) {
+		WordIndex wi = getWordIndex();
+		if (wi != null) { // skipped until the words are indexed
+			wi.getCompletions(prefix, maxCount, words, counts);
+		}
+	}
+
+	/*
+	 *	The index is started outside a batch, since the snapshot it is built
+	 *	from must be followed by the events of all the later changes.
+	 */
+	synchronized void indexWords() {
+		if ((wordIndex == null) && (! isInBatch())) {
+			wordIndex = new WordIndex(this);
+		}
+	}
+
+	/*
+	 *	This method returns null until the index is built. If it has not
+	 *	been started yet, e.g. for a model which is not loaded in a tab, it
+	 *	is started now.
+	 */
+	private WordIndex getWordIndex() {
+		indexWords();
+		return ((wordIndex != null) && wordIndex.isBuilt()) ? wordIndex : null;
+	}
+
 	/* ---- Selection methods ---------------------------------------------- */
 
 	boolean isSelected() {
@@ -426,18 +734,120 @@ class PassiveModel extends AbstractModel {
 		}
 	}
 
-	/* ---- Three basic operations of the lineVector ----------------------- */
+	/* ---- Methods of the hot line ---------------------------------------- */
+
+	/*
+	 *	This method makes the line of `row` hot and moves the gap to `col`.
+	 *	The buffer is reused, so nothing is allocated unless it is too small.
+	 */
+	private void moveGap(int row, int col) {
+		if (row != hotRow) {
+			flushHotLine();
+			char[] line = lineStore.getLine(row);
+			if ((line.length + MIN_GAP_SIZE) > hotBuffer.length) {
+				hotBuffer = new char[(line.length * 2) + MIN_GAP_SIZE];
+			}
+			int postLength = line.length - col;
+			System.arraycopy(line, 0, hotBuffer, 0, col);
+			System.arraycopy(line, col,
+					hotBuffer, hotBuffer.length - postLength, postLength);
+			hotRow = row;
+			hotStoredLength = line.length;
+			gapBegin = col;
+			gapEnd = hotBuffer.length - postLength;
+			hotLine = line;
+			return;
+		}
+
+		if (col < gapBegin) {
+			int len = gapBegin - col;
+			System.arraycopy(hotBuffer, col, hotBuffer, gapEnd - len, len);
+			gapBegin -= len;
+			gapEnd -= len;
+		} else if (col > gapBegin) {
+			int len = col - gapBegin;
+			System.arraycopy(hotBuffer, gapEnd, hotBuffer, gapBegin, len);
+			gapBegin += len;
+			gapEnd += len;
+		}
+	}
+
+	private void growGap() {
+		int postLength = hotBuffer.length - gapEnd;
+		char[] temp = new char[(hotBuffer.length * 2) + MIN_GAP_SIZE];
+		System.arraycopy(hotBuffer, 0, temp, 0, gapBegin);
+		System.arraycopy(hotBuffer, gapEnd,
+				temp, temp.length - postLength, postLength);
+		gapEnd = temp.length - postLength;
+		hotBuffer = temp;
+	}
+
+	/*
+	 *	This method returns how much longer the hot line is than the line kept
+	 *	in the lineStore.
+	 */
+	private int getHotLineDelta() {
+		if (hotRow < 0) {
+			return 0;
+		}
+		return (gapBegin + (hotBuffer.length - gapEnd)) - hotStoredLength;
+	}
+
+	private char[] materializeHotLine() {
+		int postLength = hotBuffer.length - gapEnd;
+		char[] line = new char[gapBegin + postLength];
+		System.arraycopy(hotBuffer, 0, line, 0, gapBegin);
+		System.arraycopy(hotBuffer, gapEnd, line, gapBegin, postLength);
+		return line;
+	}
+
+	/*
+	 *	This method writes the hot line back to the lineStore. It must be
+	 *	called before the rows of the lineStore are changed.
+	 */
+	private void flushHotLine() {
+		if (hotRow < 0) {
+			return;
+		}
+		lineStore.setLine(getLine(hotRow), hotRow);
+		hotRow = -1;
+		hotLine = null;
+	}
+
+	/*
+	 *	This method is intended to be overwritten to update the per-line data
+	 *	after a char is inserted into or deleted from the hot line, since the
+	 *	method setLine() is not called in this case.
+	 */
+	void lineEdited(int row) {}
+
+	/* ---- Basic operations of the lineStore ------------------------------ */
 
 	void setLine(char[] line, int row) {
-		lineVector.setElementAt(line, row);
+		if (row == hotRow) { // the hot line is replaced
+			hotRow = -1;
+			hotLine = null;
+		}
+		lineStore.setLine(line, row);
 	}
 
 	void insertLine(char[] line, int row) {
-		lineVector.insertElementAt(line, row);
+		flushHotLine();
+		lineStore.insertLine(line, row);
 	}
 
 	void removeLine(int row) {
-		lineVector.removeElementAt(row);
+		flushHotLine();
+		lineStore.removeLine(row);
+	}
+
+	/*
+	 *	This method removes the lines between `beginRow` and `endRow` (both
+	 *	inclusive) at once, instead of calling removeLine() for each of them.
+	 */
+	void removeLines(int beginRow, int endRow) {
+		flushHotLine();
+		lineStore.removeLines(beginRow, endRow);
 	}
 
 	/* ---- Basic operations for editing the model ------------------------- */
@@ -447,14 +857,122 @@ class PassiveModel extends AbstractModel {
 	 */
 	void modified() {}
 
-	void insert(char c) {
-		charCount += 1;
+	synchronized void beginBatch() {
+		batchDepth += 1;
+	}
+
+	/*
+	 *	The caret is set again at the end of a batch even if the text is not
+	 *	changed, since the caret may have been moved within the batch.
+	 */
+	synchronized void endBatch() {
+		batchDepth -= 1;
+		if (batchDepth > 0) {
+			return;
+		}
+		ModelEvent e = batchEvent;
+		batchEvent = null;
+		if (e != null) {
+			recoloredBeginRow = e.firstRow;
+			recoloredEndRow = e.getLastRow();
+			modified();
+		}
+		setCaret(getCaretRow(), getCaretColumn()); // with the new states
+		if (e != null) {
+			fireModelChanged(e);
+		}
+	}
 
+	boolean isInBatch() {
+		return (batchDepth > 0);
+	}
+
+	int getVersion() {
+		return version;
+	}
+
+	int getRecoloredBeginRow() {
+		return recoloredBeginRow;
+	}
+
+	int getRecoloredEndRow() {
+		return recoloredEndRow;
+	}
+
+	/*
+	 *	The changed lines are recolored, and this method is called in
+	 *	modified() if the syntax colors of other lines may be changed too.
+	 */
+	void addRecoloredRows(int beginRow, int endRow) {
+		recoloredBeginRow = Math.max(Math.min(recoloredBeginRow, beginRow), 0);
+		recoloredEndRow = Math.min(Math.max(recoloredEndRow, endRow),
+				getLineCount() - 1);
+	}
+
+	/*
+	 *	The snapshot is reused until the text is changed again.
+	 */
+	ModelSnapshot getSnapshot() {
+		if ((snapshot == null) || (snapshot.getVersion() != version)) {
+			char[] line = (hotRow >= 0) ? getLine(hotRow) : null;
+			snapshot = new ModelSnapshot(lineStore.snapshot(), version,
+					hotRow, line);
+		}
+		return snapshot;
+	}
+
+	void addModelListener(ModelListener l) {
+		listenerVector.addElement(l);
+	}
+
+	void removeModelListener(ModelListener l) {
+		listenerVector.removeElement(l);
+	}
+
+	Object getProperty(Object key) {
+		return propertyTable.get(key);
+	}
+
+	void putProperty(Object key, Object value) {
+		if (value == null) {
+			propertyTable.remove(key);
+		} else {
+			propertyTable.put(key, value);
+		}
+	}
+
+	/*
+	 *	This method is called at the end of every editing operation. The
+	 *	arguments are the same as those of the ModelEvent. In a batch, the
+	 *	changes are only merged.
+	 */
+	private void changed(int firstRow, int oldLineCount, int newLineCount,
+			int beginCol, int oldEndCol, int newEndCol) {
+		version += 1;
+		ModelEvent e = new ModelEvent(this, firstRow, oldLineCount,
+				newLineCount, beginCol, oldEndCol, newEndCol);
+		if (isInBatch()) {
+			batchEvent = (batchEvent == null) ? e : batchEvent.merge(e);
+			return;
+		}
+		recoloredBeginRow = firstRow;
+		recoloredEndRow = e.getLastRow();
+		modified();
+		fireModelChanged(e);
+	}
+
+	private void fireModelChanged(ModelEvent e) {
+		for (int i = 0; i < listenerVector.size(); i += 1) {
+			((ModelListener) listenerVector.elementAt(i)).modelChanged(e);
+		}
+	}
+
+	synchronized void insert(char c) {
 		int row = getCaretRow();
 		int col = getCaretColumn();
-		char[] line = getLine(row);
 
 		if (c == '\n') {
+			char[] line = getLine(row);
 			char[] pre = new char[col];
 			char[] post = new char[line.length - col];
 			System.arraycopy(line, 0, pre, 0, col);
@@ -462,33 +980,35 @@ class PassiveModel extends AbstractModel {
 			setLine(pre, row);
 			insertLine(post, row + 1);
 			setCaret(row + 1, 0);
+			changed(row, 1, 2, col, col, 0);
 		} else {
-			char[] temp = new char[line.length + 1];
-			System.arraycopy(line, 0, temp, 0, col);
-			temp[col] = c;
-			System.arraycopy(line, col, temp, col + 1, line.length - col);
-			setLine(temp, row);
+			moveGap(row, col);
+			if (gapBegin == gapEnd) {
+				growGap();
+			}
+			hotBuffer[gapBegin] = c;
+			gapBegin += 1;
+			hotLine = null;
 			setCaret(row, col + 1);
+			lineEdited(row);
+			changed(row, 1, 1, col, col, col + 1);
 		}
-		modified();
 	}
 
-	void backSpace() {
-		charCount -= 1;
-
+	synchronized void backSpace() {
 		int row = getCaretRow();
 		int col = getCaretColumn();
-		char[] line = getLine(row);
 
 		if (col > 0) {
-			char[] temp = new char[line.length - 1];
-			System.arraycopy(line, 0, temp, 0, col - 1);
-			System.arraycopy(line, col, temp, col - 1, line.length - col);
-			setLine(temp, row);
+			moveGap(row, col);
+			gapBegin -= 1;
+			hotLine = null;
 			setCaret(row, col - 1);
-			modified();
+			lineEdited(row);
+			changed(row, 1, 1, col - 1, col, col - 1);
 		} else { // col == 0
 			if (row > 0) {
+				char[] line = getLine(row);
 				char[] preLine = getLine(row - 1);
 				char[] temp = new char[preLine.length + line.length];
 				System.arraycopy(preLine, 0, temp, 0, preLine.length);
@@ -496,19 +1016,18 @@ class PassiveModel extends AbstractModel {
 				setLine(temp, row - 1);
 				removeLine(row);
 				setCaret(row - 1, preLine.length);
-				modified();
+				changed(row - 1, 2, 1, preLine.length, 0, preLine.length);
 			}
 		}
 	}
 
-	void insertString(String s) {
+	synchronized void insertString(String s) {
 		if (s.length() == 0) {
 			return;
 		}
 
-		charCount += s.length();
-
-		int row = getCaretRow();
+		int firstRow = getCaretRow();
+		int row = firstRow;
 		int col = getCaretColumn();
 		char[] line = getLine(row);
 		char[] pre = new char[col];
@@ -550,33 +1069,10 @@ class PassiveModel extends AbstractModel {
 		}
 
 		setCaret(row, newCol);
-		modified();
-	}
-
-	private int getLengthByRange(Range range) {
-		range = range.getForwardRange();
-		int beginRow = range.beginRow;
-		int beginCol = range.beginColumn;
-		int endRow = range.endRow;
-		int endCol = range.endColumn;
-		int len = 0;
-
-		for (int row = beginRow; row <= endRow; row += 1) {
-			char[] line = getLine(row);
-			int begin = (row == beginRow) ? beginCol : 0;
-			int end = (row == endRow) ? endCol : line.length;
-			len += (end - begin);
-			if ((row + 1) <= endRow) {
-				len += 1;
-			}
-		}
-
-		return len;
+		changed(firstRow, 1, row - firstRow + 1, col, col, newCol);
 	}
 
-	void deleteStringByRange(Range range) {
-		charCount -= getLengthByRange(range);
-
+	synchronized void deleteStringByRange(Range range) {
 		range = range.getForwardRange();
 		int beginRow = range.beginRow;
 		int beginCol = range.beginColumn;
@@ -596,13 +1092,13 @@ class PassiveModel extends AbstractModel {
 			setLine(temp, beginRow);
 		}
 
-		while (beginRow < endRow) {
-			removeLine(beginRow + 1);
-			endRow -= 1;
+		if (beginRow < endRow) {
+			removeLines(beginRow + 1, endRow);
 		}
 
 		setCaret(beginRow, beginCol);
-		modified();
+		changed(beginRow, endRow - beginRow + 1, 1,
+				beginCol, endCol, beginCol);
 	}
 
 }
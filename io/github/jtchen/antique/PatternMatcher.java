@@ -0,0 +1,343 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.util.*;
+
+/*
+ *	This class is similar to RegExp, but only a small subset of the syntax is
+ *	supported: a char, any char (.), a class of chars such as [0-9a-f] or
+ *	[^"\\], and a group in parentheses, each of which may be followed by ?, +
+ *	or *. Alternatives are separated by |, and a special char is escaped by a
+ *	backslash. The chars in the patterns must be ASCII chars, while any other
+ *	char in a text is matched by . or a negated class only.
+ *
+ *	The given patterns are compiled once into one deterministic automaton,
+ *	which accepts a text matching any of the patterns. Therefore, a text is
+ *	matched in one pass over its chars, and nothing is allocated.
+ */
+class PatternMatcher {
+
+	private static final int ALPHABET_SIZE = 129; // ASCII and the others
+	private static final int OTHER_CHARS = 128; // the symbol of non-ASCII
+
+	private int[][] transitions; // of the DFA, -1 for no transition
+
+	/*
+	 *	The accepted pattern of each DFA state is the first pattern accepted
+	 *	by its NFA states, or -1 if none.
+	 */
+	private int[] acceptedPatterns;
+
+	/*
+	 *	These fields describe the NFA during the compilation. Each state has
+	 *	at most one char transition, and any number of epsilon transitions.
+	 */
+	private Vector nfaCharSets; // of boolean[], or null for no transition
+	private AbstractModel.IntVector nfaCharTargets;
+	private Vector nfaEpsilons; // of AbstractModel.IntVector
+	private int[] nfaAcceptedPatterns;
+
+	PatternMatcher(String[] patterns) {
+		nfaCharSets = new Vector();
+		nfaCharTargets = new AbstractModel.IntVector();
+		nfaEpsilons = new Vector();
+
+		int start = newState(null, -1);
+		AbstractModel.IntVector ends = new AbstractModel.IntVector();
+		for (int i = 0; i < patterns.length; i += 1) {
+			int[] pos = new int[] { 0 };
+			int[] fragment = parseAlternation(patterns[i], pos);
+			addEpsilon(start, fragment[0]);
+			ends.addElement(fragment[1]);
+		}
+		nfaAcceptedPatterns = new int[nfaCharSets.size()];
+		for (int n = 0; n < nfaAcceptedPatterns.length; n += 1) {
+			nfaAcceptedPatterns[n] = -1;
+		}
+		for (int i = 0; i < ends.size(); i += 1) {
+			nfaAcceptedPatterns[ends.elementAt(i)] = i;
+		}
+
+		compile(start);
+		nfaCharSets = null;
+		nfaCharTargets = null;
+		nfaEpsilons = null;
+		nfaAcceptedPatterns = null;
+	}
+
+	/*
+	 *	This method returns true if the chars between `begin` and `end` match
+	 *	any of the patterns entirely.
+	 */
+	boolean matches(char[] chars, int begin, int end) {
+		return (getMatchedPattern(chars, begin, end) >= 0);
+	}
+
+	/*
+	 *	This method returns the index of the first pattern which the chars
+	 *	between `begin` and `end` match entirely, or -1 if none.
+	 */
+	int getMatchedPattern(char[] chars, int begin, int end) {
+		int state = 0;
+		for (int i = begin; i < end; i += 1) {
+			state = transitions[state][getSymbol(chars[i])];
+			if (state < 0) {
+				return -1;
+			}
+		}
+		return acceptedPatterns[state];
+	}
+
+	/*
+	 *	This method returns the end of the longest text beginning at `begin`
+	 *	which matches any of the patterns, or -1 if none. The text does not go
+	 *	beyond `end`.
+	 */
+	int matchPrefix(char[] chars, int begin, int end) {
+		int state = 0;
+		int matchedEnd = (acceptedPatterns[0] >= 0) ? begin : -1;
+		for (int i = begin; i < end; i += 1) {
+			state = transitions[state][getSymbol(chars[i])];
+			if (state < 0) {
+				break;
+			}
+			if (acceptedPatterns[state] >= 0) {
+				matchedEnd = i + 1;
+			}
+		}
+		return matchedEnd;
+	}
+
+	private static int getSymbol(char c) {
+		return (c < OTHER_CHARS) ? c : OTHER_CHARS;
+	}
+
+	/* ---- Methods to build the NFA --------------------------------------- */
+
+	private int newState(boolean[] charSet, int target) {
+		nfaCharSets.addElement(charSet);
+		nfaCharTargets.addElement(target);
+		nfaEpsilons.addElement(new AbstractModel.IntVector());
+		return nfaCharSets.size() - 1;
+	}
+
+	private void addEpsilon(int from, int to) {
+		((AbstractModel.IntVector) nfaEpsilons.elementAt(from))
+				.addElement(to);
+	}
+
+	/*
+	 *	Each of the parse methods returns a fragment of the NFA as { start,
+	 *	end }, and `pos` is advanced to the first char not parsed.
+	 */
+	private int[] parseAlternation(String s, int[] pos) {
+		int[] fragment = parseSequence(s, pos);
+		if ((pos[0] >= s.length()) || (s.charAt(pos[0]) != '|')) {
+			return fragment;
+		}
+
+		int start = newState(null, -1);
+		int end = newState(null, -1);
+		addEpsilon(start, fragment[0]);
+		addEpsilon(fragment[1], end);
+		while ((pos[0] < s.length()) && (s.charAt(pos[0]) == '|')) {
+			pos[0] += 1;
+			fragment = parseSequence(s, pos);
+			addEpsilon(start, fragment[0]);
+			addEpsilon(fragment[1], end);
+		}
+		return new int[] { start, end };
+	}
+
+	private int[] parseSequence(String s, int[] pos) {
+		int start = newState(null, -1);
+		int end = start;
+		while ((pos[0] < s.length()) && (s.charAt(pos[0]) != ')')
+				&& (s.charAt(pos[0]) != '|')) {
+			int[] fragment = parseRepetition(s, pos);
+			addEpsilon(end, fragment[0]);
+			end = fragment[1];
+		}
+		return new int[] { start, end };
+	}
+
+	private int[] parseRepetition(String s, int[] pos) {
+		int[] fragment = parseAtom(s, pos);
+		if (pos[0] >= s.length()) {
+			return fragment;
+		}
+
+		char c = s.charAt(pos[0]);
+		if ((c != '?') && (c != '+') && (c != '*')) {
+			return fragment;
+		}
+		pos[0] += 1;
+
+		int start = newState(null, -1);
+		int end = newState(null, -1);
+		addEpsilon(start, fragment[0]);
+		addEpsilon(fragment[1], end);
+		if ((c == '?') || (c == '*')) { // it can be skipped
+			addEpsilon(start, end);
+		}
+		if ((c == '+') || (c == '*')) { // it can be repeated
+			addEpsilon(fragment[1], fragment[0]);
+		}
+		return new int[] { start, end };
+	}
+
+	private int[] parseAtom(String s, int[] pos) {
+		char c = s.charAt(pos[0]);
+		if (c == '(') {
+			pos[0] += 1;
+			int[] fragment = parseAlternation(s, pos);
+			pos[0] += 1; // where s.charAt(pos[0]) == ')'
+			return fragment;
+		}
+
+		boolean[] charSet = new boolean[ALPHABET_SIZE];
+		if (c == '[') {
+			int p = pos[0] + 1;
+			boolean isNegated = (s.charAt(p) == '^');
+			if (isNegated) {
+				p += 1;
+			}
+			while (s.charAt(p) != ']') {
+				if (s.charAt(p) == '\\') {
+					p += 1; // the escaped char is taken as it is
+				}
+				char a = s.charAt(p);
+				if ((s.charAt(p + 1) == '-') && (s.charAt(p + 2) != ']')) {
+					char b = s.charAt(p + 2);
+					for (int n = a; n <= b; n += 1) {
+						charSet[n] = true;
+					}
+					p += 3;
+				} else {
+					charSet[a] = true;
+					p += 1;
+				}
+			}
+			if (isNegated) {
+				for (int n = 0; n < ALPHABET_SIZE; n += 1) {
+					charSet[n] = ! charSet[n];
+				}
+			}
+			pos[0] = p + 1;
+		} else if (c == '.') {
+			for (int n = 0; n < ALPHABET_SIZE; n += 1) {
+				charSet[n] = true;
+			}
+			pos[0] += 1;
+		} else {
+			if (c == '\\') {
+				pos[0] += 1;
+				c = s.charAt(pos[0]);
+			}
+			charSet[c] = true;
+			pos[0] += 1;
+		}
+
+		int end = newState(null, -1);
+		int start = newState(charSet, end);
+		return new int[] { start, end };
+	}
+
+	/* ---- Methods to build the DFA --------------------------------------- */
+
+	/*
+	 *	This is the subset construction. Each state of the DFA is a set of
+	 *	states of the NFA, which is identified by a String of its members.
+	 */
+	private void compile(int nfaStart) {
+		Vector dfaSets = new Vector(); // of boolean[]
+		Vector dfaKeys = new Vector(); // of String
+		Vector dfaTransitions = new Vector(); // of int[]
+
+		boolean[] first = new boolean[nfaCharSets.size()];
+		addClosure(first, nfaStart);
+		dfaSets.addElement(first);
+		dfaKeys.addElement(getKey(first));
+
+		for (int i = 0; i < dfaSets.size(); i += 1) {
+			boolean[] set = (boolean[]) dfaSets.elementAt(i);
+			int[] next = new int[ALPHABET_SIZE];
+			for (int c = 0; c < ALPHABET_SIZE; c += 1) {
+				boolean[] target = move(set, c);
+				if (target == null) {
+					next[c] = -1;
+					continue;
+				}
+				String key = getKey(target);
+				int index = dfaKeys.indexOf(key);
+				if (index < 0) {
+					dfaSets.addElement(target);
+					dfaKeys.addElement(key);
+					index = dfaSets.size() - 1;
+				}
+				next[c] = index;
+			}
+			dfaTransitions.addElement(next);
+		}
+
+		transitions = new int[dfaSets.size()][];
+		acceptedPatterns = new int[dfaSets.size()];
+		for (int i = 0; i < dfaSets.size(); i += 1) {
+			transitions[i] = (int[]) dfaTransitions.elementAt(i);
+			boolean[] set = (boolean[]) dfaSets.elementAt(i);
+			int accepted = -1;
+			for (int n = 0; n < set.length; n += 1) {
+				int p = nfaAcceptedPatterns[n];
+				if (set[n] && (p >= 0) && ((accepted < 0) || (p < accepted))) {
+					accepted = p;
+				}
+			}
+			acceptedPatterns[i] = accepted;
+		}
+	}
+
+	private void addClosure(boolean[] set, int state) {
+		if (set[state]) {
+			return;
+		}
+		set[state] = true;
+		AbstractModel.IntVector v
+				= (AbstractModel.IntVector) nfaEpsilons.elementAt(state);
+		for (int i = 0; i < v.size(); i += 1) {
+			addClosure(set, v.elementAt(i));
+		}
+	}
+
+	/*
+	 *	If no state can be reached by the given symbol, this method returns
+	 *	null.
+	 */
+	private boolean[] move(boolean[] set, int symbol) {
+		boolean[] target = null;
+		for (int n = 0; n < set.length; n += 1) {
+			boolean[] charSet = (boolean[]) nfaCharSets.elementAt(n);
+			if (set[n] && (charSet != null) && charSet[symbol]) {
+				if (target == null) {
+					target = new boolean[set.length];
+				}
+				addClosure(target, nfaCharTargets.elementAt(n));
+			}
+		}
+		return target;
+	}
+
+	private static String getKey(boolean[] set) {
+		StringBuffer sb = new StringBuffer();
+		for (int n = 0; n < set.length; n += 1) {
+			if (set[n]) {
+				sb.append((char) n);
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,485 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.util.*;
+
+/*
+ *	This is an implementation of the line storage as a piece table. The text
+ *	is never copied when editing: the original buffer holds the initial text
+ *	(compactly, see CompactText), the append buffer holds all the inserted
+ *	text, and the document itself is a list of pieces, each of which refers
+ *	to a span of one of the buffers.
+ *
+ *	The pieces are kept in a treap (a randomized balanced binary tree), and
+ *	every node knows the length and the count of line feeds of its subtree.
+ *	Therefore, both locating a line and splicing the text cost O(log n), where
+ *	n is the count of pieces. Since the model still reads lines as char arrays,
+ *	the recently materialized lines are kept in a small cache.
+ *
+ *	The buffers are only appended to, so a snapshot can share them, and it
+ *	shares the pieces as well. A piece is copied before it is changed if it
+ *	does not belong to the table changing it (copy-on-write).
+ */
+class PieceTable extends LineStore {
+
+	private static final int CACHE_SIZE = 64;
+
+	private CompactText original;
+	private AbstractModel.IntVector originalLineFeeds
+			= new AbstractModel.IntVector();
+
+	private char[] added = new char[1024];
+	private int addedLength = 0;
+	private AbstractModel.IntVector addedLineFeeds
+			= new AbstractModel.IntVector();
+
+	private Object owner = new Object(); // the owner of the unshared pieces
+	private Piece root = null;
+	private Random random = new Random();
+
+	private char[][] cachedLines = new char[CACHE_SIZE][];
+	private int[] cachedRows = new int[CACHE_SIZE];
+
+	/*
+	 *	These two fields hold the results of the split() method, so that no
+	 *	array has to be created for every split.
+	 */
+	private Piece splitLeft;
+	private Piece splitRight;
+
+	private static class Piece {
+		Object owner;
+		boolean isAdded;
+		int start;
+		int length;
+		int lineFeeds;
+
+		int priority;
+		Piece left;
+		Piece right;
+		int totalLength;
+		int totalLineFeeds;
+	}
+
+	PieceTable() {
+		this("");
+	}
+
+	PieceTable(String text) {
+		original = new CompactText(text);
+		for (int i = 0; i < text.length(); i += 1) {
+			if (text.charAt(i) == '\n') {
+				originalLineFeeds.addElement(i);
+			}
+		}
+		if (text.length() > 0) {
+			root = createPiece(false, 0, text.length());
+		}
+		clearCache();
+	}
+
+	private PieceTable(PieceTable table) {
+		original = table.original;
+		originalLineFeeds = table.originalLineFeeds;
+		added = table.added;
+		addedLength = table.addedLength;
+		addedLineFeeds = table.addedLineFeeds.snapshot();
+		root = table.root;
+		clearCache();
+	}
+
+	/* ---- Methods of the line storage ------------------------------------ */
+
+	int size() {
+		return totalLineFeeds(root) + 1;
+	}
+
+	int getLength() {
+		return totalLength(root);
+	}
+
+	char[] getLine(int row) {
+		int slot = row % CACHE_SIZE;
+		if (cachedRows[slot] == row) {
+			return cachedLines[slot];
+		}
+
+		int begin = getLineOffset(row);
+		int end = ((row + 1) < size())
+				? (getLineOffset(row + 1) - 1) : getLength();
+		char[] line = new char[end - begin];
+		copy(root, 0, begin, end, line, begin);
+
+		cachedRows[slot] = row;
+		cachedLines[slot] = line;
+		return line;
+	}
+
+	/*
+	 *	Only the differing part of the line will be spliced, so typing a char
+	 *	appends exactly one char to the append buffer.
+	 */
+	void setLine(char[] line, int row) {
+		char[] oldLine = getLine(row);
+		int min = Math.min(oldLine.length, line.length);
+		int prefix = 0;
+		while ((prefix < min) && (oldLine[prefix] == line[prefix])) {
+			prefix += 1;
+		}
+		int suffix = 0;
+		while (((prefix + suffix) < min) && (oldLine[oldLine.length - suffix
+				- 1] == line[line.length - suffix - 1])) {
+			suffix += 1;
+		}
+
+		int offset = getLineOffset(row) + prefix;
+		delete(offset, oldLine.length - prefix - suffix);
+		insert(offset, line, prefix, line.length - prefix - suffix);
+
+		int slot = row % CACHE_SIZE;
+		cachedRows[slot] = row;
+		cachedLines[slot] = line;
+	}
+
+	void insertLine(char[] line, int row) {
+		char[] lineFeed = new char[] { '\n' };
+		if (row < size()) {
+			int offset = getLineOffset(row);
+			insert(offset, line, 0, line.length);
+			insert(offset + line.length, lineFeed, 0, 1);
+		} else { // appends a line after the last line
+			int offset = getLength();
+			insert(offset, lineFeed, 0, 1);
+			insert(offset + 1, line, 0, line.length);
+		}
+		clearCache();
+	}
+
+	void removeLine(int row) {
+		removeLines(row, row);
+	}
+
+	void removeLines(int beginRow, int endRow) {
+		if ((endRow + 1) < size()) {
+			int begin = getLineOffset(beginRow);
+			delete(begin, getLineOffset(endRow + 1) - begin);
+		} else { // removes the last lines with the preceding line feed
+			int begin = getLineOffset(beginRow) - 1;
+			delete(begin, getLength() - begin);
+		}
+		clearCache();
+	}
+
+	/*
+	 *	Only the text appended afterwards goes beyond the length of the buffer
+	 *	of the snapshot, so the snapshot is not affected by it.
+	 */
+	LineStore snapshot() {
+		PieceTable table = new PieceTable(this);
+		owner = new Object(); // all the current pieces are shared now
+		return table;
+	}
+
+	private void clearCache() {
+		for (int i = 0; i < CACHE_SIZE; i += 1) {
+			cachedRows[i] = -1;
+			cachedLines[i] = null;
+		}
+	}
+
+	/* ---- Methods of the buffers ----------------------------------------- */
+
+	/*
+	 *	This method returns the index of the first element which is not less
+	 *	than the given value in an ascending IntVector.
+	 */
+	private static int lowerBound(AbstractModel.IntVector v, int value) {
+		int low = 0;
+		int high = v.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (v.elementAt(mid) < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int countLineFeeds(boolean isAdded, int begin, int end) {
+		AbstractModel.IntVector v = isAdded
+				? addedLineFeeds : originalLineFeeds;
+		return lowerBound(v, end) - lowerBound(v, begin);
+	}
+
+	/*
+	 *	This method returns the position of the n-th (counted from 1) line
+	 *	feed in a buffer since the given position.
+	 */
+	private int findLineFeed(boolean isAdded, int begin, int n) {
+		AbstractModel.IntVector v = isAdded
+				? addedLineFeeds : originalLineFeeds;
+		return v.elementAt(lowerBound(v, begin) + n - 1);
+	}
+
+	private int append(char[] chars, int begin, int len) {
+		if ((addedLength + len) > added.length) {
+			char[] oldAdded = added;
+			added = new char[Math.max(added.length * 2, addedLength + len)];
+			System.arraycopy(oldAdded, 0, added, 0, addedLength);
+		}
+		int start = addedLength;
+		System.arraycopy(chars, begin, added, start, len);
+		for (int i = 0; i < len; i += 1) {
+			if (chars[begin + i] == '\n') {
+				addedLineFeeds.addElement(start + i);
+			}
+		}
+		addedLength += len;
+		return start;
+	}
+
+	/* ---- Methods of the treap ------------------------------------------- */
+
+	private static int totalLength(Piece p) {
+		return (p == null) ? 0 : p.totalLength;
+	}
+
+	private static int totalLineFeeds(Piece p) {
+		return (p == null) ? 0 : p.totalLineFeeds;
+	}
+
+	private static void update(Piece p) {
+		p.totalLength = totalLength(p.left) + p.length + totalLength(p.right);
+		p.totalLineFeeds = totalLineFeeds(p.left) + p.lineFeeds
+				+ totalLineFeeds(p.right);
+	}
+
+	private Piece createPiece(boolean isAdded, int start, int length) {
+		Piece p = new Piece();
+		p.owner = owner;
+		p.isAdded = isAdded;
+		p.start = start;
+		p.length = length;
+		p.lineFeeds = countLineFeeds(isAdded, start, start + length);
+		p.priority = random.nextInt();
+		update(p);
+		return p;
+	}
+
+	/*
+	 *	This method returns the given piece itself if it belongs to this table,
+	 *	or else a copy of it which can be changed.
+	 */
+	private Piece editable(Piece p) {
+		if (p.owner == owner) {
+			return p;
+		}
+		Piece copy = new Piece();
+		copy.owner = owner;
+		copy.isAdded = p.isAdded;
+		copy.start = p.start;
+		copy.length = p.length;
+		copy.lineFeeds = p.lineFeeds;
+		copy.priority = p.priority;
+		copy.left = p.left;
+		copy.right = p.right;
+		copy.totalLength = p.totalLength;
+		copy.totalLineFeeds = p.totalLineFeeds;
+		return copy;
+	}
+
+	/*
+	 *	This method splits a treap into two, and the left one contains exactly
+	 *	the first `offset` chars. A piece may be cut into two pieces here.
+	 */
+	private void split(Piece p, int offset) {
+		if (p == null) {
+			splitLeft = null;
+			splitRight = null;
+			return;
+		}
+
+		p = editable(p);
+		int leftLength = totalLength(p.left);
+		if (offset <= leftLength) {
+			split(p.left, offset);
+			p.left = splitRight;
+			update(p);
+			splitRight = p;
+		} else if (offset >= (leftLength + p.length)) {
+			split(p.right, offset - leftLength - p.length);
+			p.right = splitLeft;
+			update(p);
+			splitLeft = p;
+		} else {
+			int cut = offset - leftLength;
+			Piece tail = createPiece(p.isAdded,
+					p.start + cut, p.length - cut);
+			Piece right = p.right;
+			p.length = cut;
+			p.lineFeeds -= tail.lineFeeds;
+			p.right = null;
+			update(p);
+			splitLeft = p;
+			splitRight = merge(tail, right);
+		}
+	}
+
+	private Piece merge(Piece a, Piece b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			a = editable(a);
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		} else {
+			b = editable(b);
+			b.left = merge(a, b.left);
+			update(b);
+			return b;
+		}
+	}
+
+	/*
+	 *	If the new text directly follows the last piece on the left in both
+	 *	the document and the append buffer, that piece simply grows. This is
+	 *	what happens when a user keeps typing.
+	 *
+	 *	This method is only called with the left part of a split, whose right
+	 *	spine has been made editable by split(), so it changes pieces in place.
+	 */
+	private boolean extendRightmost(Piece p, int start, int len) {
+		if (p == null) {
+			return false;
+		}
+		boolean isExtended;
+		if (p.right != null) {
+			isExtended = extendRightmost(p.right, start, len);
+		} else if (p.isAdded && ((p.start + p.length) == start)) {
+			p.length += len;
+			p.lineFeeds += countLineFeeds(true, start, start + len);
+			isExtended = true;
+		} else {
+			isExtended = false;
+		}
+		if (isExtended) {
+			update(p);
+		}
+		return isExtended;
+	}
+
+	private void insert(int offset, char[] chars, int begin, int len) {
+		if (len == 0) {
+			return;
+		}
+
+		int start = append(chars, begin, len);
+		split(root, offset);
+		Piece left = splitLeft;
+		Piece right = splitRight;
+		if (! extendRightmost(left, start, len)) {
+			left = merge(left, createPiece(true, start, len));
+		}
+		root = merge(left, right);
+	}
+
+	private void delete(int offset, int len) {
+		if (len == 0) {
+			return;
+		}
+
+		split(root, offset);
+		Piece left = splitLeft;
+		split(splitRight, len);
+		root = merge(left, splitRight); // the middle part is dropped
+	}
+
+	int getLineOffset(int row) {
+		int offset = 0;
+		int n = row; // the count of line feeds to be skipped
+		Piece p = root;
+		while ((n > 0) && (p != null)) {
+			int leftLineFeeds = totalLineFeeds(p.left);
+			if (n <= leftLineFeeds) {
+				p = p.left;
+			} else if (n <= (leftLineFeeds + p.lineFeeds)) {
+				int pos = findLineFeed(p.isAdded, p.start, n - leftLineFeeds);
+				return offset + totalLength(p.left) + (pos - p.start) + 1;
+			} else {
+				n -= (leftLineFeeds + p.lineFeeds);
+				offset += totalLength(p.left) + p.length;
+				p = p.right;
+			}
+		}
+		return offset;
+	}
+
+	/*
+	 *	The row is the count of line feeds before the given offset.
+	 */
+	int getRow(int offset) {
+		int row = 0;
+		Piece p = root;
+		while (p != null) {
+			int leftLength = totalLength(p.left);
+			if (offset <= leftLength) {
+				p = p.left;
+			} else if (offset <= (leftLength + p.length)) {
+				return row + totalLineFeeds(p.left) + countLineFeeds(p.isAdded,
+						p.start, p.start + (offset - leftLength));
+			} else {
+				row += totalLineFeeds(p.left) + p.lineFeeds;
+				offset -= (leftLength + p.length);
+				p = p.right;
+			}
+		}
+		return row;
+	}
+
+	/*
+	 *	This method copies the chars between the offsets `begin` and `end` of
+	 *	the document, where `base` is the offset of the given subtree and
+	 *	`origin` is the offset corresponding to the beginning of `dest`.
+	 */
+	private void copy(Piece p, int base, int begin, int end,
+			char[] dest, int origin) {
+		if ((p == null) || (begin >= end)) {
+			return;
+		}
+
+		int pieceBegin = base + totalLength(p.left);
+		int pieceEnd = pieceBegin + p.length;
+		if (begin < pieceBegin) {
+			copy(p.left, base, begin, Math.min(end, pieceBegin),
+					dest, origin);
+		}
+		int from = Math.max(begin, pieceBegin);
+		int to = Math.min(end, pieceEnd);
+		if (from < to) {
+			int srcBegin = p.start + (from - pieceBegin);
+			if (p.isAdded) {
+				System.arraycopy(added, srcBegin,
+						dest, from - origin, to - from);
+			} else {
+				original.getChars(srcBegin, srcBegin + (to - from),
+						dest, from - origin);
+			}
+		}
+		if (end > pieceEnd) {
+			copy(p.right, pieceEnd, Math.max(begin, pieceEnd), end,
+					dest, origin);
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This is an implementation of a model that supports syntax highlighting of
+ *	the .properties files of Java. A value is continued on the next line if
+ *	its line ends in an odd number of backslashes.
+ */
+class PropertiesSourceModel extends LexerModel {
+
+	private static final byte COLOR_KEY = Theme.PRIMARY_BLOCK;
+	private static final byte COLOR_COMMENT = Theme.SECONDARY_BLOCK;
+	private static final byte COLOR_OPERATOR = Theme.PRIMARY_INLINE;
+	private static final byte COLOR_LITERAL = Theme.SECONDARY_INLINE;
+
+	private static final int STATE_KEY = 0; // at the beginning of a line
+	private static final int STATE_SEPARATOR = 1;
+	private static final int STATE_VALUE = 2;
+	private static final int STATE_CONTINUED = 3; // at the end of a line
+
+	private static LexerGrammar grammar = new LexerGrammar(4);
+	static {
+		grammar.addRule(STATE_KEY, "[ \t\f]*[#!].*", COLOR_COMMENT);
+		grammar.addRule(STATE_KEY, "[ \t\f]+", (byte) 0);
+		grammar.addRule(STATE_KEY, "([^:= \t\f\\\\]|\\\\.)+", COLOR_KEY,
+				STATE_SEPARATOR);
+		grammar.addRule(STATE_KEY, "[:=]", COLOR_OPERATOR, STATE_VALUE);
+
+		grammar.addRule(STATE_SEPARATOR, "[ \t\f]*[:=]", COLOR_OPERATOR,
+				STATE_VALUE);
+		grammar.addRule(STATE_SEPARATOR, "[ \t\f]+", (byte) 0, STATE_VALUE);
+		grammar.setLineEndState(STATE_SEPARATOR, STATE_KEY);
+
+		/*
+		 *	A single backslash can only be matched at the end of a line, since
+		 *	an escape is longer otherwise.
+		 */
+		grammar.addRule(STATE_VALUE, "[^\\\\]+", COLOR_LITERAL);
+		grammar.addRule(STATE_VALUE, "\\\\.", COLOR_OPERATOR);
+		grammar.addRule(STATE_VALUE, "\\\\", COLOR_OPERATOR, STATE_CONTINUED);
+		grammar.setLineEndState(STATE_VALUE, STATE_KEY);
+		grammar.setLineEndState(STATE_CONTINUED, STATE_VALUE);
+	}
+
+	PropertiesSourceModel() {
+		this(new LineArrayStore());
+	}
+
+	PropertiesSourceModel(LineStore lineStore) {
+		super(lineStore, grammar);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This class keeps a 64-bit polynomial hash of the text of a model, in which
+ *	every line is followed by a line feed. The hash of each line is kept in a
+ *	LineTree whose summaries combine the hashes in order, so only the changed
+ *	lines are hashed again after an edit, and the hash of the whole text is
+ *	the summary of the tree.
+ */
+class TextHash implements ModelListener {
+
+	private static final long FACTOR = 1099511628211L;
+
+	private AbstractModel model;
+
+	private LineTree hashTree = new LineTree(); // of Hash
+
+	/*
+	 *	This is the hash of some consecutive lines, and `power` is the FACTOR
+	 *	to the power of the count of their chars. A Hash is never changed.
+	 */
+	private static class Hash {
+		long value = 0;
+		long power = 1;
+	}
+
+	TextHash(AbstractModel model) {
+		setModel(model);
+		int lc = model.getLineCount();
+		for (int row = 0; row < lc; row += 1) {
+			hashTree.addElement(getHash(model.getLine(row)));
+		}
+		hashTree.setSummarizer(new HashSummarizer());
+	}
+
+	/*
+	 *	The given model must have the same text, e.g. when the syntax of a
+	 *	document is changed.
+	 */
+	void setModel(AbstractModel model) {
+		if (this.model != null) {
+			this.model.removeModelListener(this);
+		}
+		this.model = model;
+		model.addModelListener(this);
+	}
+
+	public void modelChanged(ModelEvent e) {
+		int commonCount = Math.min(e.oldLineCount, e.newLineCount);
+		for (int i = 0; i < commonCount; i += 1) {
+			int row = e.firstRow + i;
+			hashTree.setElementAt(getHash(model.getLine(row)), row);
+		}
+		if (e.oldLineCount > e.newLineCount) {
+			hashTree.removeElements(e.firstRow + e.newLineCount,
+					e.firstRow + e.oldLineCount - 1);
+		}
+		for (int i = e.oldLineCount; i < e.newLineCount; i += 1) {
+			int row = e.firstRow + i;
+			hashTree.insertElementAt(getHash(model.getLine(row)), row);
+		}
+	}
+
+	long getValue() {
+		return ((Hash) hashTree.getSummary()).value;
+	}
+
+	/*
+	 *	This method returns the same hash as a TextHash of the model would
+	 *	have, but it hashes the whole text without keeping anything.
+	 */
+	static long getValue(AbstractModel model) {
+		long value = 0;
+		int lc = model.getLineCount();
+		for (int row = 0; row < lc; row += 1) {
+			char[] line = model.getLine(row);
+			for (int col = 0; col < line.length; col += 1) {
+				value = (value * FACTOR) + line[col];
+			}
+			value = (value * FACTOR) + '\n';
+		}
+		return value;
+	}
+
+	private static Hash getHash(char[] line) {
+		Hash hash = new Hash();
+		for (int col = 0; col < line.length; col += 1) {
+			hash.value = (hash.value * FACTOR) + line[col];
+			hash.power *= FACTOR;
+		}
+		hash.value = (hash.value * FACTOR) + '\n';
+		hash.power *= FACTOR;
+		return hash;
+	}
+
+	/*
+	 *	The hash of some lines followed by other lines is the hash of the
+	 *	former shifted by the chars of the latter, plus the hash of the latter.
+	 */
+	private static class HashSummarizer extends LineTree.Summarizer {
+
+		Object getSummary(Object element) {
+			return element;
+		}
+
+		Object combine(Object[] summaries, int count) {
+			Hash hash = new Hash();
+			for (int i = 0; i < count; i += 1) {
+				Hash h = (Hash) summaries[i];
+				hash.value = (hash.value * h.power) + h.value;
+				hash.power *= h.power;
+			}
+			return hash;
+		}
+
+	}
+
+}
@@ -19,11 +19,13 @@ class Theme {
 	static final Color CURSOR_COLOR = Color.red;
 	static final Color SOFT_HIGHLIGHT_COLOR = Color.yellow;
 	static final Color HARD_HIGHLIGHT_COLOR = Color.cyan;
+	static final Color OCCURRENCE_COLOR = Color.lightGray;
 
 	static final byte COLOR_MASK = 15;
 
 	static final byte MATCH_MASK = 16;
 	static final byte MESSY_WHITESPACE_MASK = 32;
+	static final byte OCCURRENCE_MASK = 64;
 
 	static final byte IMPORTANT = 1;
 	static final byte PRIMARY_BLOCK = 2;
@@ -7,7 +7,6 @@ package io.github.jtchen.antique;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.util.*;
 
 /*
  *	This is a view implemented in a Java 1.1 compatible way.
@@ -18,6 +17,9 @@ class View extends AbstractView {
 	private static final int HORIZONTAL = 1;
 
 	private AbstractModel model;
+	private Highlighter highlighter;
+	private AbstractModel.IntVector colorSpanVector
+			= new AbstractModel.IntVector(); // reused by paintRows()
 
 	private FontMetrics fontMetrics;
 	private Font mainFont;
@@ -50,6 +52,7 @@ class View extends AbstractView {
 
 	View(AbstractEditor editor, AbstractModel model) {
 		this.model = model;
+		highlighter = new Highlighter(model, this);
 		setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
 
 		mainFont = editor.getMainFont();
@@ -95,6 +98,9 @@ class View extends AbstractView {
 	}
 
 	synchronized void setModel(AbstractModel model) {
+		if (model != this.model) {
+			highlighter.setModel(model);
+		}
 		this.model = model;
 		pageMetrics = new PageMetrics();
 	}
@@ -213,11 +219,12 @@ class View extends AbstractView {
 		char[] line = model.getLine(mRow);
 		boolean isCursorAtWrap = false;
 
+		int pageX = x - gutterWidth;
 		int mCol = line.length;
-		for (int col = 1; col < (line.length + 1); col += 1) {
+		int beginCol = Math.max(pageMetrics.getColumn(mRow, pageX, y), 1);
+		for (int col = beginCol; col < (line.length + 1); col += 1) {
 			int curY = pageMetrics.getY(mRow, col);
 			int curX = pageMetrics.getX(mRow, col);
-			int pageX = x - gutterWidth;
 
 			if ((curY > y) // because of wrapping
 					|| (((curY + lineHeight) > y) && (curX > pageX))) {
@@ -352,6 +359,11 @@ class View extends AbstractView {
 		repaint();
 	}
 
+	void updateTextByModel(int firstRow, int oldLineCount, int newLineCount) {
+		pageMetrics.spliceLines(firstRow, oldLineCount, newLineCount);
+		updateTextByModel(firstRow, firstRow + newLineCount - 1);
+	}
+
 	/*
 	 *	This method is only called by the select() method of the TabCollection
 	 *	class. It assumes that a new PageMetrics object has just been created.
@@ -373,6 +385,7 @@ class View extends AbstractView {
 		Point o = viewport.getLocation();
 		int beginRow = canvasYToModelRow(o.y);
 		int endRow = canvasYToModelRow(o.y + height - 1);
+		highlighter.setVisibleRows(beginRow, endRow);
 
 		paintSelection(bg, beginRow, endRow);
 		paintCurrentLineIndicator(bg);
@@ -397,6 +410,8 @@ class View extends AbstractView {
 			int beginCol = (row == r.beginRow) ? r.beginColumn : 0;
 			int endCol = (row == r.endRow)
 					? r.endColumn : model.getLine(row).length;
+			beginCol = Math.max(beginCol, getBeginVisibleColumn(row));
+			endCol = Math.min(endCol, getEndVisibleColumn(row));
 			for (int col = beginCol; col < endCol; col += 1) {
 				int x = pageMetrics.getX(row, col);
 				int y = pageMetrics.getY(row, col);
@@ -426,25 +441,61 @@ class View extends AbstractView {
 		return hanziWidth;
 	}
 
+	/*
+	 *	Only the columns between these two are painted, so that a long line
+	 *	costs no more than the part of it inside the viewport.
+	 */
+	private int getBeginVisibleColumn(int row) {
+		return pageMetrics.getColumn(row, viewport.x, viewport.y);
+	}
+
+	private int getEndVisibleColumn(int row) {
+		int x = viewport.x + viewport.width - gutterWidth;
+		int y = viewport.y + viewport.height - 1;
+		int length = model.getLine(row).length;
+		return Math.min(pageMetrics.getColumn(row, x, y) + 1, length);
+	}
+
+	/*
+	 *	Only the syntax colors which are ready are painted, and the other
+	 *	lines are painted in the foreground color until they are ready. The
+	 *	color spans are walked along with the columns, and they are filled
+	 *	into the same vector for every line, so nothing is allocated per row.
+	 */
 	private void paintRows(Graphics g, int beginRow, int endRow) {
 		Point o = viewport.getLocation();
+		AbstractModel.IntVector spans = colorSpanVector;
 		for (int row = beginRow; row <= endRow; row += 1) {
 			char[] line = model.getLine(row);
-			byte[] colorCodes = model.getColorCodes(row);
-			for (int col = 0; col < line.length; col += 1) {
+			model.getColorSpans(row, highlighter.getColorSpans(row), spans);
+			int i = 0; // the first span not ending before the column
+			int endCol = getEndVisibleColumn(row);
+			for (int col = getBeginVisibleColumn(row); col < endCol;
+					col += 1) {
 				char c = line[col];
 
-				int x = pageMetrics.getX(row, col);
-				int y = pageMetrics.getY(row, col);
-				Point p = new Point(x, y);
-				p.translate(gutterWidth - o.x, - o.y);
+				int x = pageMetrics.getX(row, col) + gutterWidth - o.x;
+				int y = pageMetrics.getY(row, col) - o.y;
 
-				byte colorCode = colorCodes[col];
+				while ((i < spans.size()) && (spans.elementAt(i + 1) <= col)) {
+					i += 3;
+				}
+				byte colorCode = 0;
+				if ((i < spans.size()) && (spans.elementAt(i) <= col)) {
+					colorCode = (byte) spans.elementAt(i + 2);
+				}
+				if ((colorCode & Theme.OCCURRENCE_MASK)
+						== Theme.OCCURRENCE_MASK) {
+					g.setColor(Theme.OCCURRENCE_COLOR);
+					int w = pageMetrics.columnWidth(row, col);
+					int h = 2;
+					g.fillRect(x, y + lineHeight - h, w, h);
+				}
 				if ((colorCode & Theme.MATCH_MASK) == Theme.MATCH_MASK) {
 					g.setColor(Theme.HARD_HIGHLIGHT_COLOR);
 					int w = pageMetrics.columnWidth(row, col);
 					int h = 4;
-					g.fillRect(p.x, p.y + lineHeight - h, w, h);
+					g.fillRect(x, y + lineHeight - h, w, h);
 				}
 				if ((c == ' ') || (c == '\t')) {
 					if ((colorCode & Theme.MESSY_WHITESPACE_MASK)
@@ -453,7 +504,7 @@ class View extends AbstractView {
 					}
 					g.setColor(Theme.SOFT_HIGHLIGHT_COLOR);
 					int w = pageMetrics.columnWidth(row, col);
-					g.drawRect(p.x, p.y, w, lineHeight - 1);
+					g.drawRect(x, y, w, lineHeight - 1);
 				}
 
 				if (canDisplay(c)) {
@@ -462,10 +513,10 @@ class View extends AbstractView {
 					g.setFont(fallbackFont);
 				}
 				if (isMonospacedFont && AbstractEditor.isHanzi(c)) {
-					p.x += (2 * numberWidth - getHanziWidth()) / 2;
+					x += (2 * numberWidth - getHanziWidth()) / 2;
 				}
 				g.setColor(Theme.getColor(colorCode));
-				g.drawChars(line, col, 1, p.x, p.y + ascent);
+				g.drawChars(line, col, 1, x, y + ascent);
 			}
 		}
 	}
@@ -505,7 +556,11 @@ class View extends AbstractView {
 				g.setColor(Theme.CONTROL_BACKGROUND_COLOR);
 				g.fillRect(0, top, gutterWidth, lineHeight);
 			}
-			g.setColor(Theme.CONTROL_FOREGROUND_COLOR);
+			if (model.isLongLine(row)) { // shown plain (see AbstractModel)
+				g.setColor(Theme.getColor(Theme.IMPORTANT));
+			} else {
+				g.setColor(Theme.CONTROL_FOREGROUND_COLOR);
+			}
 			g.drawString(s, x, top + ascent);
 		}
 	}
@@ -523,15 +578,21 @@ class View extends AbstractView {
 
 		private int tabWidth;
 
-		private Vector lineMetricsVector = new Vector(); // of LineMetrics
+		private LineTree lineMetricsTree = new LineTree(); // of LineMetrics
 		private AbstractModel.IntVector wrapPointsVector
 				= new AbstractModel.IntVector();
 
 		private int pageWidthCache = -1; // an impossible value as a flag
 
+		/*
+		 *	The previous segment counts are only valid for the rows before
+		 *	this one, and they are computed again from here when needed.
+		 */
+		private int validSegmentRows = 0;
+
 		private class LineMetrics {
 			int segmentCount; // parts of a line by wrapping
-			int previousSegmentCount = -1; // an impossible value as a flag
+			int previousSegmentCount;
 			int[] xLocations;
 			int[] wrapPoints;
 		}
@@ -541,10 +602,35 @@ class View extends AbstractView {
 		}
 
 		synchronized void resetLines(int beginRow, int endRow) {
-			endRow = Math.min(endRow, lineMetricsVector.size() - 1);
+			int lc = model.getLineCount();
+			if (lineMetricsTree.size() > lc) { // in case of removed lines
+				lineMetricsTree.removeElements(lc, lineMetricsTree.size() - 1);
+				validSegmentRows = Math.min(validSegmentRows, lc);
+			}
+
+			endRow = Math.min(endRow, lineMetricsTree.size() - 1);
 			for (int i = beginRow; i <= endRow; i += 1) {
-				lineMetricsVector.setElementAt(null, i);
+				lineMetricsTree.setElementAt(null, i);
+			}
+			validSegmentRows = Math.min(validSegmentRows, beginRow);
+			pageWidthCache = -1;
+		}
+
+		/*
+		 *	This method removes the metrics of the old lines and makes room
+		 *	for the new lines, so that the metrics of the other lines are kept.
+		 */
+		synchronized void spliceLines(int firstRow,
+				int oldLineCount, int newLineCount) {
+			int size = lineMetricsTree.size();
+			if (firstRow < size) {
+				int end = Math.min(firstRow + oldLineCount, size);
+				lineMetricsTree.removeElements(firstRow, end - 1);
+				for (int i = 0; i < newLineCount; i += 1) {
+					lineMetricsTree.insertElementAt(null, firstRow);
+				}
 			}
+			validSegmentRows = Math.min(validSegmentRows, firstRow);
 			pageWidthCache = -1;
 		}
 
@@ -559,11 +645,11 @@ class View extends AbstractView {
 		}
 
 		private synchronized LineMetrics getLineMetrics(int row) {
-			if (row > (lineMetricsVector.size() - 1)) {
-				lineMetricsVector.setSize(row + 1);
+			while (row > (lineMetricsTree.size() - 1)) {
+				lineMetricsTree.addElement(null);
 			}
 
-			LineMetrics lm = (LineMetrics) lineMetricsVector.elementAt(row);
+			LineMetrics lm = (LineMetrics) lineMetricsTree.elementAt(row);
 			if (lm == null) {
 				lm = new LineMetrics();
 				char[] line = model.getLine(row);
@@ -573,6 +659,7 @@ class View extends AbstractView {
 				Dimension size = viewport.getSize();
 				int wpWidth = size.width - gutterWidth - cursor.width;
 				wrapPointsVector.removeAllElements();
+				int searchedCol = 0; // no wrapable position up to it
 
 				for (int col = 1; col <= line.length; col += 1) {
 					int colWidth = getCharWidth(xLocs[col - 1], line[col - 1]);
@@ -580,7 +667,7 @@ class View extends AbstractView {
 
 					if (isLineWrap && (xLocs[col] > wpWidth)) {
 						int lastWrapablePos = 0;
-						for (int i = (col - 1); i > 0; i -= 1) {
+						for (int i = (col - 1); i > searchedCol; i -= 1) {
 							if (xLocs[i] == 0) {
 								break;
 							}
@@ -608,6 +695,8 @@ class View extends AbstractView {
 							xLocs[col] = colWidth;
 							segCount += 1; // the line was wrapped
 							wrapPointsVector.addElement(col - 1);
+						} else {
+							searchedCol = col - 1;
 						}
 					}
 				}
@@ -621,7 +710,7 @@ class View extends AbstractView {
 				lm.xLocations = xLocs;
 				lm.segmentCount = segCount;
 				lm.wrapPoints = wrapPoints;
-				lineMetricsVector.setElementAt(lm, row);
+				lineMetricsTree.setElementAt(lm, row);
 			}
 			return lm;
 		}
@@ -664,18 +753,22 @@ class View extends AbstractView {
 		}
 
 		private int getPreviousSegmentCount(int row) {
-			LineMetrics lm = getLineMetrics(row);
-			if (lm.previousSegmentCount != -1) {
-				return lm.previousSegmentCount;
+			if (row < validSegmentRows) {
+				return getLineMetrics(row).previousSegmentCount;
 			}
 
 			int count = 0;
-			for (int i = 0; i < row; i += 1) {
-				lm = getLineMetrics(i);
+			if (validSegmentRows > 0) {
+				LineMetrics lm = getLineMetrics(validSegmentRows - 1);
+				count = lm.previousSegmentCount + lm.segmentCount;
+			}
+			for (int i = validSegmentRows; i <= row; i += 1) {
+				LineMetrics lm = getLineMetrics(i);
 				lm.previousSegmentCount = count;
 				count += lm.segmentCount;
 			}
-			return count;
+			validSegmentRows = row + 1;
+			return getLineMetrics(row).previousSegmentCount;
 		}
 
 		/*
@@ -684,16 +777,45 @@ class View extends AbstractView {
 		 */
 		int getY(int row, int col, boolean isCursorAtWrap) {
 			int[] wpPoints = getLineMetrics(row).wrapPoints;
-			int wpRows = 0;
+			int low = 0;
+			int high = wpPoints.length - 1; // always greater than `col`
+
+			while (low < high) { // the first wrap point after `col`
+				int mid = (low + high) / 2;
+				if ((isCursorAtWrap && (wpPoints[mid] == col))
+						|| (wpPoints[mid] > col)) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return (getPreviousSegmentCount(row) + low) * lineHeight;
+		}
 
-			for (int i = 0; i < wpPoints.length; i += 1) {
-				if ((isCursorAtWrap && (wpPoints[i] == col))
-						|| (wpPoints[i] > col)) {
-					wpRows = i;
-					break;
+		/*
+		 *	This method returns the first column of a line which does not end
+		 *	before the given point of the page, where the segments of a
+		 *	wrapped line are read from top to bottom. A point above or below
+		 *	the line is taken as on its first or last segment.
+		 */
+		int getColumn(int row, int pageX, int pageY) {
+			LineMetrics lm = getLineMetrics(row);
+			int[] xLocs = lm.xLocations;
+			int segment = (pageY / lineHeight) - getPreviousSegmentCount(row);
+			segment = Math.max(0, Math.min(segment, lm.segmentCount - 1));
+
+			int low = (segment == 0) ? 0 : lm.wrapPoints[segment - 1];
+			int high = (segment == (lm.segmentCount - 1))
+					? (xLocs.length - 1) : lm.wrapPoints[segment];
+			while (low < high) {
+				int mid = (low + high) / 2;
+				if ((xLocs[mid] + columnWidth(row, mid)) > pageX) {
+					high = mid;
+				} else {
+					low = mid + 1;
 				}
 			}
-			return (getPreviousSegmentCount(row) + wpRows) * lineHeight;
+			return low;
 		}
 
 		int getY(int row, int col) {
@@ -0,0 +1,493 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+import java.util.*;
+
+/*
+ *	This class keeps the lines containing each word of a model, so that the
+ *	occurrences of a word are found without scanning the document. It is
+ *	updated by the ModelEvents, and only the changed lines are split into
+ *	words again. A word is an identifier, i.e. the digits cannot begin it.
+ *
+ *	Every line has a key, and the keys increase with the rows, so the lines
+ *	of a word are kept sorted by their keys although the rows are shifted by
+ *	every new line. The lines of a word within some rows are found by binary
+ *	search, and the row of each of them is found by its key in O(log n).
+ *
+ *	The words are also kept sorted by their texts, so the words beginning with
+ *	a prefix are next to each other, e.g. for completion.
+ *
+ *	The index is built from a snapshot of the model in its own thread, so a
+ *	large document does not block the editing. The changes made meanwhile are
+ *	merged into one event, which is applied once the snapshot is indexed.
+ */
+class WordIndex implements ModelListener, Runnable {
+
+	private static final long KEY_SPACING = 1L << 32; // of the new keys
+
+	private AbstractModel model;
+	private ModelSnapshot snapshot; // being indexed, null when it is built
+	private ModelEvent pendingEvent = null; // the changes since the snapshot
+
+	private LineTree lineTree = new LineTree(); // of IndexedLine
+	private Hashtable wordTable = new Hashtable(); // of String to Word
+	private Word[] sortedWords = new Word[16]; // by text
+	private int wordCount = 0;
+	private int mark = 0; // see updateWords()
+	private boolean isBuilding = false; // the new words are sorted later
+
+	private KeySearcher keySearcher = new KeySearcher();
+	private AbstractModel.IntVector wordVector
+			= new AbstractModel.IntVector(); // reused to split the lines
+	private Word[] lineWords = new Word[16]; // reused to update a line
+
+	private static final Word[] NO_WORDS = new Word[0];
+
+	private static class IndexedLine {
+		long key;
+		Word[] words = NO_WORDS; // the distinct words of the line
+	}
+
+	/*
+	 *	The lines of a word are kept in an array instead of a Vector, since
+	 *	most words are found in a few lines only.
+	 */
+	private static class Word {
+		String text;
+		IndexedLine[] lines = new IndexedLine[1]; // sorted by key
+		int lineCount; // of the lines in use
+		int mark;
+	}
+
+	/*
+	 *	The model must be locked and not in a batch, so that the snapshot and
+	 *	the following events describe the same text.
+	 */
+	WordIndex(AbstractModel model) {
+		this.model = model;
+		snapshot = model.getSnapshot();
+		model.addModelListener(this);
+
+		Thread thread = new Thread(this, "WordIndex");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/*
+	 *	The lines of a new index are summarized once after they are all
+	 *	inserted, and the words are sorted once after all the lines are split,
+	 *	rather than inserted into the sortedWords one by one.
+	 */
+	public void run() {
+		int lc = snapshot.getLineCount();
+		insertLines(0, lc);
+		lineTree.setSummarizer(new KeySummarizer());
+		isBuilding = true;
+		for (int row = 0; row < lc; row += 1) {
+			updateWords((IndexedLine) lineTree.elementAt(row),
+					snapshot.getLine(row));
+		}
+		isBuilding = false;
+		sortWords();
+
+		synchronized (model) {
+			snapshot = null;
+			if (pendingEvent != null) {
+				update(pendingEvent);
+				pendingEvent = null;
+			}
+		}
+	}
+
+	/*
+	 *	The index can only be read while the model is locked, and after this
+	 *	method returns true.
+	 */
+	boolean isBuilt() {
+		return (snapshot == null);
+	}
+
+	public void modelChanged(ModelEvent e) {
+		if (snapshot != null) {
+			pendingEvent = (pendingEvent == null) ? e : pendingEvent.merge(e);
+		} else {
+			update(e);
+		}
+	}
+
+	/*
+	 *	The lines which are still there keep their keys, and only the lines
+	 *	added or removed are inserted into or removed from the tree.
+	 */
+	private void update(ModelEvent e) {
+		for (int i = e.newLineCount; i < e.oldLineCount; i += 1) {
+			removeWords((IndexedLine) lineTree.elementAt(e.firstRow + i));
+		}
+		if (e.oldLineCount > e.newLineCount) {
+			lineTree.removeElements(e.firstRow + e.newLineCount,
+					e.firstRow + e.oldLineCount - 1);
+		} else if (e.newLineCount > e.oldLineCount) {
+			insertLines(e.firstRow + e.oldLineCount,
+					e.newLineCount - e.oldLineCount);
+		}
+		for (int i = 0; i < e.newLineCount; i += 1) {
+			int row = e.firstRow + i;
+			updateWords((IndexedLine) lineTree.elementAt(row),
+					model.getLine(row));
+		}
+	}
+
+	/* ---- Methods to split the lines into words -------------------------- */
+
+	/*
+	 *	This method puts the begin and end columns of the words of the line
+	 *	into the given vector.
+	 */
+	static void findWords(char[] line, AbstractModel.IntVector v) {
+		v.removeAllElements();
+		int col = 0;
+		while (col < line.length) {
+			if (! Character.isUnicodeIdentifierPart(line[col])) {
+				col += 1;
+				continue;
+			}
+			int begin = col;
+			while ((col < line.length)
+					&& Character.isUnicodeIdentifierPart(line[col])) {
+				col += 1;
+			}
+			if (Character.isUnicodeIdentifierStart(line[begin])) {
+				v.addElement(begin);
+				v.addElement(col);
+			}
+		}
+	}
+
+	/*
+	 *	This method returns the word at the given column, which may also be
+	 *	the column just after the word, or null if there is no word.
+	 */
+	static String getWordAt(char[] line, int col) {
+		int begin = col;
+		while ((begin > 0)
+				&& Character.isUnicodeIdentifierPart(line[begin - 1])) {
+			begin -= 1;
+		}
+		int end = col;
+		while ((end < line.length)
+				&& Character.isUnicodeIdentifierPart(line[end])) {
+			end += 1;
+		}
+		if ((begin == end)
+				|| (! Character.isUnicodeIdentifierStart(line[begin]))) {
+			return null;
+		}
+		return new String(line, begin, end - begin);
+	}
+
+	/*
+	 *	The words of a changed line are compared with the words it had, and
+	 *	only the words added or removed are changed, so that typing does not
+	 *	shift the lines of the common words (e.g. "int"). The words of a long
+	 *	line are not indexed, since it is shown plain.
+	 */
+	private void updateWords(IndexedLine il, char[] line) {
+		if (line.length > AbstractModel.LONG_LINE_LENGTH) {
+			removeWords(il);
+			return;
+		}
+
+		mark += 2; // the words now in the line are marked by `mark`
+		findWords(line, wordVector);
+		int n = 0; // the count of the lineWords
+		for (int i = 0; i < wordVector.size(); i += 2) {
+			int begin = wordVector.elementAt(i);
+			int end = wordVector.elementAt(i + 1);
+			String text = new String(line, begin, end - begin);
+			Word word = (Word) wordTable.get(text);
+			if (word == null) {
+				word = new Word();
+				word.text = text;
+				wordTable.put(text, word);
+				insertWord(word);
+			}
+			if (word.mark != mark) {
+				word.mark = mark;
+				if (n == lineWords.length) {
+					Word[] oldWords = lineWords;
+					lineWords = new Word[n * 2];
+					System.arraycopy(oldWords, 0, lineWords, 0, n);
+				}
+				lineWords[n] = word;
+				n += 1;
+			}
+		}
+
+		for (int i = 0; i < il.words.length; i += 1) {
+			Word word = il.words[i];
+			if (word.mark == mark) {
+				word.mark = mark + 1; // the word already has the line
+			} else {
+				removeLine(word, il);
+			}
+		}
+		for (int i = 0; i < n; i += 1) {
+			if (lineWords[i].mark == mark) {
+				addLine(lineWords[i], il);
+			}
+		}
+		if (n == 0) {
+			il.words = NO_WORDS;
+		} else {
+			il.words = new Word[n];
+			System.arraycopy(lineWords, 0, il.words, 0, n);
+		}
+	}
+
+	private void removeWords(IndexedLine il) {
+		for (int i = 0; i < il.words.length; i += 1) {
+			removeLine(il.words[i], il);
+		}
+		il.words = NO_WORDS;
+	}
+
+	private void addLine(Word word, IndexedLine il) {
+		if (word.lineCount == word.lines.length) {
+			IndexedLine[] oldLines = word.lines;
+			word.lines = new IndexedLine[word.lineCount * 2];
+			System.arraycopy(oldLines, 0, word.lines, 0, word.lineCount);
+		}
+		int index = indexOfKey(word, il.key);
+		System.arraycopy(word.lines, index,
+				word.lines, index + 1, word.lineCount - index);
+		word.lines[index] = il;
+		word.lineCount += 1;
+	}
+
+	private void removeLine(Word word, IndexedLine il) {
+		int index = indexOfKey(word, il.key);
+		System.arraycopy(word.lines, index + 1,
+				word.lines, index, word.lineCount - index - 1);
+		word.lineCount -= 1;
+		word.lines[word.lineCount] = null;
+		if (word.lineCount == 0) {
+			wordTable.remove(word.text);
+			removeWord(word);
+		}
+	}
+
+	/* ---- Methods to find the lines of a word ---------------------------- */
+
+	/*
+	 *	This method puts the rows between `beginRow` and `endRow` containing
+	 *	the given word into the vector in order. It costs O(log n) for each
+	 *	row found, regardless of the size of the document.
+	 */
+	void getRows(String text, int beginRow, int endRow,
+			AbstractModel.IntVector rows) {
+		rows.removeAllElements();
+		Word word = (Word) wordTable.get(text);
+		if ((word == null) || (beginRow > endRow)) {
+			return;
+		}
+		long beginKey = ((IndexedLine) lineTree.elementAt(beginRow)).key;
+		long endKey = ((IndexedLine) lineTree.elementAt(endRow)).key;
+		for (int i = indexOfKey(word, beginKey); i < word.lineCount; i += 1) {
+			IndexedLine il = word.lines[i];
+			if (il.key > endKey) {
+				break;
+			}
+			keySearcher.key = il.key;
+			rows.addElement(lineTree.search(0, keySearcher));
+		}
+	}
+
+	/*
+	 *	This method returns the index of the first line of the word whose key
+	 *	is not less than the given key.
+	 */
+	private static int indexOfKey(Word word, long key) {
+		int low = 0;
+		int high = word.lineCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (word.lines[mid].key < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/* ---- Methods to complete a word ------------------------------------- */
+
+	/*
+	 *	This method appends the words beginning with the given prefix to the
+	 *	vectors with the counts of the lines containing them. At most
+	 *	`maxCount` words found in the most lines are appended in descending
+	 *	order of the counts, and the prefix itself is not a completion.
+	 */
+	void getCompletions(String prefix, int maxCount, Vector words,
+			AbstractModel.IntVector counts) {
+		if (maxCount <= 0) {
+			return;
+		}
+		Word[] top = new Word[maxCount];
+		int n = 0;
+		int end = indexOfWord(prefix + '\uffff'); // not in any identifier
+		for (int i = indexOfWord(prefix); i < end; i += 1) {
+			Word word = sortedWords[i];
+			int count = word.lineCount;
+			if (((n == maxCount) && (count <= top[n - 1].lineCount))
+					|| (word.text.length() == prefix.length())) {
+				continue;
+			}
+			int j = (n < maxCount) ? n : (n - 1); // the last one is dropped
+			n = Math.min(n + 1, maxCount);
+			while ((j > 0) && (top[j - 1].lineCount < count)) {
+				top[j] = top[j - 1];
+				j -= 1;
+			}
+			top[j] = word;
+		}
+		for (int i = 0; i < n; i += 1) {
+			words.addElement(top[i].text);
+			counts.addElement(top[i].lineCount);
+		}
+	}
+
+	/*
+	 *	This method returns the index of the first word in the sortedWords
+	 *	whose text is not less than the given text.
+	 */
+	private int indexOfWord(String text) {
+		int low = 0;
+		int high = wordCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sortedWords[mid].text.compareTo(text) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void insertWord(Word word) {
+		if (wordCount == sortedWords.length) {
+			Word[] oldWords = sortedWords;
+			sortedWords = new Word[wordCount * 2];
+			System.arraycopy(oldWords, 0, sortedWords, 0, wordCount);
+		}
+		int index = isBuilding ? wordCount : indexOfWord(word.text);
+		System.arraycopy(sortedWords, index,
+				sortedWords, index + 1, wordCount - index);
+		sortedWords[index] = word;
+		wordCount += 1;
+	}
+
+	private void removeWord(Word word) {
+		int index = indexOfWord(word.text);
+		System.arraycopy(sortedWords, index + 1,
+				sortedWords, index, wordCount - index - 1);
+		wordCount -= 1;
+		sortedWords[wordCount] = null;
+	}
+
+	/*
+	 *	This method sorts the sortedWords by merging the runs of a width in
+	 *	pairs, and the width is doubled each time.
+	 */
+	private void sortWords() {
+		Word[] buffer = new Word[sortedWords.length];
+		for (int width = 1; width < wordCount; width *= 2) {
+			for (int low = 0; low < wordCount; low += (width * 2)) {
+				int mid = Math.min(low + width, wordCount);
+				int high = Math.min(low + (width * 2), wordCount);
+				int i = low;
+				int j = mid;
+				for (int k = low; k < high; k += 1) {
+					if ((j == high) || ((i < mid)
+							&& (sortedWords[i].text.compareTo(
+									sortedWords[j].text) <= 0))) {
+						buffer[k] = sortedWords[i];
+						i += 1;
+					} else {
+						buffer[k] = sortedWords[j];
+						j += 1;
+					}
+				}
+			}
+			Word[] words = sortedWords;
+			sortedWords = buffer;
+			buffer = words;
+		}
+	}
+
+	/* ---- Methods to keep the keys in order ------------------------------ */
+
+	/*
+	 *	The new lines are given the keys evenly spaced between the keys of
+	 *	their neighbors. If there is no room left, all the keys are spaced
+	 *	out again, which does not change their order.
+	 */
+	private void insertLines(int row, int count) {
+		long prevKey = (row > 0)
+				? ((IndexedLine) lineTree.elementAt(row - 1)).key : 0;
+		long nextKey = (row < lineTree.size())
+				? ((IndexedLine) lineTree.elementAt(row)).key
+				: prevKey + (count + 1) * KEY_SPACING;
+		long step = (nextKey - prevKey) / (count + 1);
+		for (int i = 0; i < count; i += 1) {
+			IndexedLine il = new IndexedLine();
+			il.key = prevKey + (i + 1) * step;
+			lineTree.insertElementAt(il, row + i);
+		}
+		if (step == 0) {
+			for (int r = 0; r < lineTree.size(); r += 1) {
+				((IndexedLine) lineTree.elementAt(r)).key
+						= (r + 1) * KEY_SPACING;
+			}
+		}
+	}
+
+	/*
+	 *	The summary of some lines is the last of them, which has the largest
+	 *	key. It changes with the key, which is fine since the tree is never
+	 *	shared by a snapshot.
+	 */
+	private static class KeySummarizer extends LineTree.Summarizer {
+
+		Object getSummary(Object element) {
+			return element;
+		}
+
+		Object combine(Object[] summaries, int count) {
+			return (count > 0) ? summaries[count - 1] : null;
+		}
+
+	}
+
+	/*
+	 *	The searcher finds the first line whose key is not less than `key`.
+	 */
+	private static class KeySearcher extends LineTree.Searcher {
+
+		long key;
+
+		boolean isFound(Object summary) {
+			return (summary != null) && (((IndexedLine) summary).key >= key);
+		}
+
+		void skip(Object summary) {}
+
+	}
+
+}
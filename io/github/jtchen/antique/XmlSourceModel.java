@@ -0,0 +1,75 @@
+/*
+ *	This file is part of Antique. It is distributed WITHOUT ANY WARRANTY.
+ *	Details can be found on <https://github.com/jtchen/antique>.
+ */
+
+package io.github.jtchen.antique;
+
+/*
+ *	This is an implementation of a model that supports syntax highlighting of
+ *	XML and HTML. The tags, the comments and the CDATA sections can span
+ *	lines, and so can a quoted value of an attribute.
+ */
+class XmlSourceModel extends LexerModel {
+
+	private static final byte COLOR_TAG = Theme.PRIMARY_BLOCK;
+	private static final byte COLOR_COMMENT = Theme.SECONDARY_BLOCK;
+	private static final byte COLOR_OPERATOR = Theme.PRIMARY_INLINE;
+	private static final byte COLOR_LITERAL = Theme.SECONDARY_INLINE;
+
+	private static final int STATE_TEXT = 0;
+	private static final int STATE_TAG = 1;
+	private static final int STATE_COMMENT = 2;
+	private static final int STATE_CDATA = 3;
+	private static final int STATE_DOUBLE_QUOTED = 4; // a value in a tag
+	private static final int STATE_SINGLE_QUOTED = 5;
+
+	private static final String NAME = "[A-Za-z_:][A-Za-z0-9_:.-]*";
+
+	private static LexerGrammar grammar = new LexerGrammar(6);
+	static {
+		grammar.addRule(STATE_TEXT, "[^<&]+", (byte) 0);
+		grammar.addRule(STATE_TEXT, "<!--", COLOR_COMMENT, STATE_COMMENT);
+		grammar.addRule(STATE_TEXT, "<!\\[CDATA\\[", COLOR_OPERATOR,
+				STATE_CDATA);
+		grammar.addRule(STATE_TEXT, "</?" + NAME, COLOR_TAG, STATE_TAG);
+		grammar.addRule(STATE_TEXT, "<[?!][A-Za-z]*", COLOR_TAG, STATE_TAG);
+		grammar.addRule(STATE_TEXT,
+				"&([A-Za-z][A-Za-z0-9]*|#[0-9]+|#[xX][0-9a-fA-F]+);",
+				COLOR_LITERAL);
+
+		grammar.addRule(STATE_TAG, "[ \t]+", (byte) 0);
+		grammar.addRule(STATE_TAG, NAME, (byte) 0);
+		grammar.addRule(STATE_TAG, "=", COLOR_OPERATOR);
+		grammar.addRule(STATE_TAG, "\"[^\"]*\"", COLOR_LITERAL);
+		grammar.addRule(STATE_TAG, "\"[^\"]*", COLOR_LITERAL,
+				STATE_DOUBLE_QUOTED);
+		grammar.addRule(STATE_TAG, "'[^']*'", COLOR_LITERAL);
+		grammar.addRule(STATE_TAG, "'[^']*", COLOR_LITERAL,
+				STATE_SINGLE_QUOTED);
+		grammar.addRule(STATE_TAG, "[/?]?>", COLOR_TAG, STATE_TEXT);
+
+		grammar.addRule(STATE_DOUBLE_QUOTED, "[^\"]+", COLOR_LITERAL);
+		grammar.addRule(STATE_DOUBLE_QUOTED, "[^\"]*\"", COLOR_LITERAL,
+				STATE_TAG);
+		grammar.addRule(STATE_SINGLE_QUOTED, "[^']+", COLOR_LITERAL);
+		grammar.addRule(STATE_SINGLE_QUOTED, "[^']*'", COLOR_LITERAL,
+				STATE_TAG);
+
+		grammar.addRule(STATE_COMMENT, "[^-]+", COLOR_COMMENT);
+		grammar.addRule(STATE_COMMENT, "-->", COLOR_COMMENT, STATE_TEXT);
+		grammar.setDefaultColor(STATE_COMMENT, COLOR_COMMENT);
+
+		grammar.addRule(STATE_CDATA, "[^\\]]+", (byte) 0);
+		grammar.addRule(STATE_CDATA, "\\]\\]>", COLOR_OPERATOR, STATE_TEXT);
+	}
+
+	XmlSourceModel() {
+		this(new LineArrayStore());
+	}
+
+	XmlSourceModel(LineStore lineStore) {
+		super(lineStore, grammar);
+	}
+
+}